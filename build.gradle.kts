@@ -12,6 +12,7 @@ plugins {
     alias(libs.plugins.changelog) // Gradle Changelog Plugin
     alias(libs.plugins.qodana) // Gradle Qodana Plugin
     alias(libs.plugins.dokka) // Gradle Dokka Plugin
+    alias(libs.plugins.jmh) // JMH benchmarks in src/jmh
 }
 
 group = properties("pluginGroup").get()
@@ -52,6 +53,16 @@ changelog {
     unreleasedTerm.set("[Unreleased]")
 }
 
+// Configure JMH - read more: https://github.com/melix/jmh-gradle-plugin
+// Run the benchmarks in src/jmh with ./gradlew jmh, the gc profiler reports the allocation of each one
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.set(listOf("gc"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
 // Configure Gradle Qodana Plugin - read more: https://github.com/JetBrains/gradle-qodana-plugin
 qodana {
     cachePath = provider { file(".qodana").canonicalPath }
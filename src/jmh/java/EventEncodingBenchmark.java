@@ -0,0 +1,67 @@
+import edu.uoc.allago.uocsubmissionsystem.EventBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding an event as it is written to the uoc.data file. Run with "./gradlew jmh", the gc profiler
+ * set in build.gradle.kts reports the bytes allocated per event (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventEncodingBenchmark {
+
+    private final StringBuilder sb = new StringBuilder(1024);
+    private EventBuffer.Event modification;
+    private EventBuffer.Event creation;
+    private EventBuffer.Event[] minutes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        long time = System.currentTimeMillis();
+        modification = new EventBuffer.Event(EventBuffer.Type.MD, time, 12, 40, "Main.java", null);
+        creation = new EventBuffer.Event(EventBuffer.Type.CR, time, 0, "Util.java", null);
+        // Events a minute apart, so that the time prefix is formatted for every one of them
+        minutes = new EventBuffer.Event[1024];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = new EventBuffer.Event(EventBuffer.Type.MD, time + i * 60_000L, i, "Main.java", null);
+        }
+    }
+
+    // The flush encodes every event into the same builder
+    @Benchmark
+    public StringBuilder modificationIntoReusedBuilder() {
+        sb.setLength(0);
+        modification.appendTo(sb);
+        return sb;
+    }
+
+    @Benchmark
+    public StringBuilder creationIntoReusedBuilder() {
+        sb.setLength(0);
+        creation.appendTo(sb);
+        return sb;
+    }
+
+    // Worst case, every event is in a different minute
+    @Benchmark
+    public StringBuilder newMinuteIntoReusedBuilder() {
+        sb.setLength(0);
+        minutes[next++ & (minutes.length - 1)].appendTo(sb);
+        return sb;
+    }
+
+    // Encoding each event into a new String, as before the builder was reused
+    @Benchmark
+    public String modificationToString() {
+        return modification.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.application.ApplicationManager;
+
+/**
+ * Application service that knows whether the user is an admin. The master password is looked up in the
+ * password store only the first time, and again after a new one is saved in the settings, so the listeners
+ * that check the role on every change only read a field.
+ */
+public class AdminRoleService {
+
+    // Null until the role is resolved
+    private volatile Boolean admin;
+
+    public static AdminRoleService getInstance() {
+        return ApplicationManager.getApplication().getService(AdminRoleService.class);
+    }
+
+    /**
+     * Checks if the current user is an admin, that is, if the master password in the settings is the plugin key.
+     *
+     * @return true if the user is an admin, false otherwise
+     */
+    public boolean isAdmin() {
+        Boolean cached = admin;
+        if (cached != null) return cached;
+
+        synchronized (this) {
+            if (admin == null) {
+                String masterPassword = AppSettingsState.getInstance().retrievePassword(true);
+                admin = PropertiesLoader.getProperty("key").equals(masterPassword);
+            }
+            return admin;
+        }
+    }
+
+    /**
+     * Forgets the role, so that it is resolved again the next time it is checked.
+     * Called when a new master password is saved.
+     */
+    public synchronized void invalidate() {
+        admin = null;
+    }
+}
@@ -42,6 +42,8 @@ public class AppSettingsConfigurable implements Configurable {
     public void apply() {
         AppSettingsState settings = AppSettingsState.getInstance();
         settings.savePassword("admin", mySettingsComponent.getPasswordText(),true);
+        // The new master password may change the role of the user
+        AdminRoleService.getInstance().invalidate();
     }
 
     @Override
@@ -0,0 +1,238 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decrypts the files of a project in the background once it is open, so that the IDE does not wait for the
+ * whole project. The files reopened from the last session are decrypted first, then the ones in source roots,
+ * and then the rest. The files are decrypted in small groups, and the directories of each group are refreshed
+ * asynchronously as soon as it is done, so the IDE sees the first files while the others are still encrypted.
+ * <p>
+ * Closing the project stops the decryption before the project is encrypted again. The files that were not
+ * decrypted yet are still encrypted, so they are left as they are. Exporting the project waits for it.
+ */
+public class BackgroundDecryption {
+
+    private static final Logger LOG = Logger.getInstance(BackgroundDecryption.class);
+
+    // Number of files decrypted before their directories are refreshed
+    private static final int GROUP_SIZE = 64;
+
+    // Files open in the editor, as saved in the workspace of the project
+    private static final Pattern EDITOR_COMPONENT = Pattern.compile(
+            "<component name=\"FileEditorManager\">(.*?)</component>", Pattern.DOTALL);
+    private static final Pattern EDITOR_FILE = Pattern.compile("file=\"file://\\$PROJECT_DIR\\$/([^\"]+)\"");
+
+    // Decryption of every open project, by base directory
+    private static final Map<String, BackgroundDecryption> RUNNING = new ConcurrentHashMap<>();
+
+    private final Project project;
+    private final String baseDir;
+    private final CipherTools cipherTools;
+    private final EncryptedFileCache cache;
+    private final List<Path> files;
+
+    // Taken by the task when it starts, or by the project closing if it has not started yet
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile boolean refreshed;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private BackgroundDecryption(@NotNull Project project, @NotNull String baseDir, @NotNull CipherTools cipherTools,
+                                 @Nullable EncryptedFileCache cache, @NotNull List<Path> files) {
+        this.project = project;
+        this.baseDir = baseDir;
+        this.cipherTools = cipherTools;
+        this.cache = cache;
+        this.files = files;
+    }
+
+    /**
+     * Starts decrypting the files of a project in the background.
+     *
+     * @param project     the project
+     * @param baseDir     the base directory of the project
+     * @param cipherTools decrypts the files
+     * @param cache       the cache for the encrypted copies, or null to delete them
+     * @param files       the encrypted files, from {@link CipherTools#listEncryptedFiles(String)}
+     * @return the decryption
+     */
+    public static @NotNull BackgroundDecryption start(@NotNull Project project, @NotNull String baseDir,
+                                                      @NotNull CipherTools cipherTools,
+                                                      @Nullable EncryptedFileCache cache,
+                                                      @NotNull List<Path> files) {
+        if (cache != null) {
+            cache.clear();
+        }
+        BackgroundDecryption decryption = new BackgroundDecryption(project, baseDir, cipherTools, cache, files);
+        RUNNING.put(baseDir, decryption);
+
+        new Task.Backgroundable(project, "Decrypting project files", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                decryption.run(indicator);
+            }
+        }.queue();
+        return decryption;
+    }
+
+    /**
+     * Stops the decryption of a project and waits until the file being decrypted is done.
+     * Called before the project is encrypted when it is closed.
+     *
+     * @param baseDir the base directory of the project
+     */
+    public static void stop(@Nullable String baseDir) {
+        BackgroundDecryption decryption = baseDir != null ? RUNNING.remove(baseDir) : null;
+        if (decryption == null) return;
+
+        decryption.stopped = true;
+        // If the task has not started, it will not decrypt anything
+        if (decryption.claimed.compareAndSet(false, true)) {
+            decryption.saveCache();
+            return;
+        }
+        try {
+            decryption.finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until every file of a project has been decrypted, so that the project can be exported.
+     *
+     * @param baseDir   the base directory of the project
+     * @param indicator the progress indicator of the export, canceling it stops waiting
+     */
+    public static void awaitCompletion(@Nullable String baseDir, @NotNull ProgressIndicator indicator) {
+        BackgroundDecryption decryption = baseDir != null ? RUNNING.get(baseDir) : null;
+        if (decryption == null) return;
+
+        indicator.setText("Waiting for the project files to be decrypted");
+        try {
+            while (!decryption.finished.await(100, TimeUnit.MILLISECONDS)) {
+                indicator.checkCanceled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks if every file has been decrypted and the IDE has seen all of them. The files created
+     * until then are the ones decrypted, not files created by the user.
+     *
+     * @return true if the decryption and the refresh of the project have finished
+     */
+    public boolean isRefreshed() {
+        return refreshed;
+    }
+
+    private void run(@NotNull ProgressIndicator indicator) {
+        if (!claimed.compareAndSet(false, true)) return;
+        try {
+            List<Path> ordered = prioritize();
+            indicator.setIndeterminate(false);
+            for (int start = 0; start < ordered.size() && !stopped; start += GROUP_SIZE) {
+                List<Path> group = ordered.subList(start, Math.min(start + GROUP_SIZE, ordered.size()));
+                cipherTools.decryptFiles(group, cache);
+                indicator.setFraction((double) (start + group.size()) / ordered.size());
+
+                boolean last = start + GROUP_SIZE >= ordered.size();
+                refreshDirectories(group, last ? () -> refreshed = true : null);
+            }
+            if (ordered.isEmpty()) {
+                refreshed = true;
+            }
+            LOG.info("Project decrypted: " + baseDir);
+        } finally {
+            saveCache();
+            RUNNING.remove(baseDir, this);
+            finished.countDown();
+        }
+    }
+
+    private void saveCache() {
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    // Sort the files by when they are needed: open in the editor, in a source root, anything else
+    private @NotNull List<Path> prioritize() {
+        Set<Path> editorFiles = lastSessionFiles();
+        List<Path> sourceRoots = new ArrayList<>();
+        for (VirtualFile root : ReadAction.compute(() -> ProjectRootManager.getInstance(project).getContentSourceRoots())) {
+            sourceRoots.add(Paths.get(root.getPath()));
+        }
+
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingInt(file -> {
+            if (editorFiles.contains(file)) return 0;
+            for (Path root : sourceRoots) {
+                if (file.startsWith(root)) return 1;
+            }
+            return 2;
+        }));
+        return ordered;
+    }
+
+    // Encrypted version of the files that were open in the editor when the project was last closed
+    private @NotNull Set<Path> lastSessionFiles() {
+        Set<Path> editorFiles = new HashSet<>();
+        Path workspace = Paths.get(baseDir, ".idea", "workspace.xml");
+        if (!Files.isRegularFile(workspace)) return editorFiles;
+
+        try {
+            Matcher component = EDITOR_COMPONENT.matcher(new String(Files.readAllBytes(workspace), StandardCharsets.UTF_8));
+            if (component.find()) {
+                Matcher file = EDITOR_FILE.matcher(component.group(1));
+                while (file.find()) {
+                    editorFiles.add(Paths.get(baseDir, file.group(1) + ".uoc"));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Error reading the files open in the last session", e);
+        }
+        return editorFiles;
+    }
+
+    // Refresh only the directories of the decrypted files, without waiting for it
+    private void refreshDirectories(@NotNull List<Path> group, @Nullable Runnable onFinished) {
+        Set<File> directories = new LinkedHashSet<>();
+        for (Path file : group) {
+            directories.add(file.getParent().toFile());
+        }
+        LocalFileSystem.getInstance().refreshIoFiles(directories, true, false, onFinished);
+    }
+}
@@ -1,21 +1,35 @@
 package edu.uoc.allago.uocsubmissionsystem;
 
+import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.spec.KeySpec;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -23,14 +37,35 @@ import java.util.stream.Stream;
  */
 public class CipherTools {
 
+    // Fixed salt and parameters used for key derivation
+    private static final byte[] SALT = "s0m3s@l7".getBytes();
+    private static final int ITERATIONS = 500;
+    private static final int KEY_LENGTH = 128;
+
+    // Last derived key, shared by all instances and rebuilt only when the password changes
+    private static volatile DerivedKey derivedKey;
+
+    private static final Logger LOG = Logger.getInstance(CipherTools.class);
+
+    // Size of the read buffer used when streaming a file through the cipher
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Buffers reused by every file processed on the same thread
+    private static final ThreadLocal<CipherBuffers> BUFFERS = ThreadLocal.withInitial(CipherBuffers::new);
+
     private final String password;
+    private final int parallelism;
 
     /**
-     * Constructor that initializes the password from the config.properties file.
+     * Constructor that initializes the password and the parallelism level from the config.properties file.
      */
     public CipherTools() {
         // Retrieve the password from the properties
         password = PropertiesLoader.getProperty("key");
+
+        // Number of threads used to process project files, 0 means one per available processor
+        int configured = PropertiesLoader.getIntProperty("cipherParallelism");
+        parallelism = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -39,28 +74,59 @@ public class CipherTools {
      * @param basePath the base directory of the project
      */
     public void encryptProject(String basePath) {
+        encryptProject(basePath, null);
+    }
+
+    /**
+     * Encrypts all eligible files in a project directory. Files that have not changed since they were
+     * decrypted get their cached encrypted copy back instead of being encrypted again.
+     *
+     * @param basePath the base directory of the project
+     * @param cache    the cache filled when the project was decrypted, or null to encrypt every file
+     */
+    public void encryptProject(String basePath, @Nullable EncryptedFileCache cache) {
         Path path = Paths.get(basePath);
+        if (cache != null) {
+            cache.load();
+        }
 
         try (Stream<Path> paths = Files.walk(path)) {
-            paths.filter(p -> {
-                        // Exclude ".idea" directory
-                        boolean isIdeaDir = p.startsWith(path.resolve(".idea"));
-                        // Exclude ".iml" files
-                        boolean isImlFile = p.getFileName().toString().endsWith(".iml");
-                        // Exclude ".uoc" files
-                        boolean isUocFile = p.getFileName().toString().endsWith(".uoc");
-                        // Exclude "CMakeLists.txt" files
-                        boolean isCMakeLists = p.getFileName().toString().endsWith("CMakeLists.txt");
-                        // Exclude "venv" directory
-                        boolean isVenvDir = p.startsWith(path.resolve("venv"));
-
-                        return Files.isRegularFile(p) && !isIdeaDir && !isImlFile &&
-                                !isUocFile && !isVenvDir && !isCMakeLists;
-                    })
-                    .forEach(file -> encrypt(file));
+            List<Path> files = paths.filter(p -> isEncryptable(path, p))
+                    .collect(Collectors.toList());
+            runInParallel(files, file -> encrypt(file, cache));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Checks if a file of a project is encrypted when the project is closed or exported.
+     *
+     * @param basePath the base directory of the project
+     * @param p        the file to check
+     * @return true if the file is a regular file that has to be encrypted, false otherwise
+     */
+    public boolean isEncryptable(@NotNull Path basePath, @NotNull Path p) {
+        // Exclude ".idea" directory
+        boolean isIdeaDir = p.startsWith(basePath.resolve(".idea"));
+        // Exclude ".iml" files
+        boolean isImlFile = p.getFileName().toString().endsWith(".iml");
+        // Exclude ".uoc" files
+        boolean isUocFile = p.getFileName().toString().endsWith(".uoc");
+        // Exclude "CMakeLists.txt" files
+        boolean isCMakeLists = p.getFileName().toString().endsWith("CMakeLists.txt");
+        // Exclude "venv" directory
+        boolean isVenvDir = p.startsWith(basePath.resolve("venv"));
+        // Exclude the event journal, its records are already encrypted
+        boolean isJournal = p.getFileName().toString().endsWith(EventJournal.FILE_SUFFIX);
+        // Exclude the intent file written while the project is encrypted on close
+        boolean isCloseIntent = p.getFileName().toString().equals(ProjectCloseJob.INTENT_FILE);
+
+        return Files.isRegularFile(p) && !isIdeaDir && !isImlFile &&
+                !isUocFile && !isVenvDir && !isCMakeLists && !isJournal && !isCloseIntent;
     }
 
     /**
@@ -70,11 +136,39 @@ public class CipherTools {
      * @return the number of decrypted files
      */
     public int decryptProject(String basePath) {
-        Path path = Paths.get(basePath);
-        AtomicInteger count = new AtomicInteger();
+        return decryptProject(basePath, null);
+    }
 
-        try (Stream<Path> paths = Files.walk(path)) {
-            paths.filter(p -> {
+    /**
+     * Decrypts all eligible ".uoc" files in a project directory, except "uoc.data", keeping the
+     * encrypted copies in a cache so that unchanged files do not need to be encrypted again on close.
+     *
+     * @param basePath the base directory of the project
+     * @param cache    the cache for the encrypted copies, or null to delete them
+     * @return the number of decrypted files
+     */
+    public int decryptProject(String basePath, @Nullable EncryptedFileCache cache) {
+        if (cache != null) {
+            cache.clear();
+        }
+        List<Path> files = listEncryptedFiles(basePath);
+        decryptFiles(files, cache);
+        if (cache != null) {
+            cache.save();
+        }
+        return files.size();
+    }
+
+    /**
+     * Lists the ".uoc" files of a project directory that are decrypted when it is opened, that is,
+     * all of them except "uoc.data".
+     *
+     * @param basePath the base directory of the project
+     * @return the encrypted files
+     */
+    public @NotNull List<Path> listEncryptedFiles(String basePath) {
+        try (Stream<Path> paths = Files.walk(Paths.get(basePath))) {
+            return paths.filter(p -> {
                         // Only include ".uoc" files
                         boolean isUocFile = p.getFileName().toString().endsWith(".uoc");
                         // Exclude "uoc.data.uoc" files
@@ -82,14 +176,41 @@ public class CipherTools {
 
                         return Files.isRegularFile(p) && isUocFile && !isUOCdataFile;
                     })
-                    .forEach(file -> {
-                        decrypt(file);
-                        count.getAndIncrement();
-                    });
+                    .collect(Collectors.toList());
         } catch (IOException e) {
             e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Decrypts a list of ".uoc" files in parallel, keeping the encrypted copies in a cache.
+     *
+     * @param files the encrypted files
+     * @param cache the cache for the encrypted copies, or null to delete them
+     */
+    public void decryptFiles(@NotNull List<Path> files, @Nullable EncryptedFileCache cache) {
+        runInParallel(files, file -> decrypt(file, cache));
+    }
+
+    /**
+     * Runs a cipher job for every file on a bounded work-stealing pool and waits for all of them.
+     * Each job handles its own errors, so a file that cannot be processed does not stop the others.
+     *
+     * @param files the files to process
+     * @param job   the cipher job to run for each file
+     */
+    private void runInParallel(@NotNull List<Path> files, @NotNull Consumer<Path> job) {
+        if (files.size() < 2 || parallelism < 2) {
+            files.forEach(job);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, files.size()));
+        try {
+            pool.invoke(new CipherTask(files, 0, files.size(), job));
+        } finally {
+            pool.shutdown();
         }
-        return count.get();
     }
 
     /**
@@ -99,7 +220,7 @@ public class CipherTools {
      */
     public void encryptFile(String file) {
         Path path = Paths.get(file);
-        encrypt(path);
+        encrypt(path, null);
         File f = new File(file + ".uoc");
         try {
             setHiddenProperty(f);
@@ -115,87 +236,182 @@ public class CipherTools {
      */
     public void decryptFile(String file) {
         Path path = Paths.get(file);
-        decrypt(path);
+        decrypt(path, null);
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is encrypted. Closing the returned stream
+     * finishes the encryption and closes the wrapped stream.
+     *
+     * @param output the stream that receives the encrypted content
+     * @return the encrypting stream
+     * @throws IOException if the cipher cannot be created
+     */
+    public @NotNull OutputStream encryptingStream(@NotNull OutputStream output) throws IOException {
+        return new CipherOutputStream(output, createCipher(Cipher.ENCRYPT_MODE));
+    }
+
+    /**
+     * Decrypts a file into memory, leaving the file untouched.
+     *
+     * @param file the path to the encrypted file
+     * @return the decrypted content
+     * @throws IOException if the file cannot be read or decrypted
+     */
+    public byte @NotNull [] decryptToBytes(@NotNull Path file) throws IOException {
+        Cipher cipher = createCipher(Cipher.DECRYPT_MODE);
+        try {
+            return cipher.doFinal(Files.readAllBytes(file));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error decrypting file: " + file, e);
+        }
+    }
+
+    /**
+     * Derives a key from the secret key for another use, so that the same key is never shared by two ciphers.
+     *
+     * @param purpose the name of the use of the key
+     * @return the derived AES key
+     * @throws IOException if the key cannot be derived
+     */
+    @NotNull SecretKey deriveKey(@NotNull String purpose) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(getKey(password));
+            byte[] keyBytes = mac.doFinal(purpose.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(keyBytes, 0, KEY_LENGTH / 8, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error deriving the key", e);
+        }
+    }
+
+    // Create a cipher initialized with the secret key
+    private @NotNull Cipher createCipher(int cipherMode) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(cipherMode, getKey(password));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error creating the cipher", e);
+        }
     }
 
     private void cipherFile(SecretKey key, int cipherMode, File inputFile, File outputFile) throws Exception {
         Cipher cipher = Cipher.getInstance("AES");
         cipher.init(cipherMode, key);
 
-        try (FileInputStream inputStream = new FileInputStream(inputFile);
-             FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+        try (FileChannel inputChannel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
 
-            byte[] buffer = new byte[64];
-            int bytesRead;
+            CipherBuffers buffers = BUFFERS.get();
+            ByteBuffer input = buffers.input;
+            ByteBuffer output = buffers.output;
+            input.clear();
 
             // Read input file and update the cipher with its content
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                byte[] outputBuffer = cipher.update(buffer, 0, bytesRead);
-                if (outputBuffer != null) {
-                    outputStream.write(outputBuffer);
-                }
+            while (inputChannel.read(input) != -1) {
+                input.flip();
+                output.clear();
+                cipher.update(input, output);
+                output.flip();
+                writeFully(outputChannel, output);
+                input.clear();
             }
             // Finalize the encryption or decryption process
-            byte[] outputBytes = cipher.doFinal();
-            if (outputBytes != null) {
-                outputStream.write(outputBytes);
-            }
+            input.flip();
+            output.clear();
+            cipher.doFinal(input, output);
+            output.flip();
+            writeFully(outputChannel, output);
         }
     }
 
-    // Generate a secret key for encryption or decryption using a password
-    private @NotNull SecretKey generateKey(@NotNull String password) throws Exception {
-        // Use a fixed salt for key derivation
-        byte[] salt = "s0m3s@l7".getBytes();
+    // Write the remaining content of the buffer to the channel
+    private void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
 
-        // Set the number of iterations and key length
-        int iterations = 500;
-        int keyLength = 128;
+    // Return the secret key for the given password, deriving it only if it is not cached yet
+    private @NotNull SecretKey getKey(@NotNull String password) throws GeneralSecurityException {
+        DerivedKey cached = derivedKey;
+        if (cached != null && cached.matches(password, SALT)) {
+            return cached.key;
+        }
+        SecretKey key = generateKey(password);
+        derivedKey = new DerivedKey(password, SALT, key);
+        return key;
+    }
 
+    // Generate a secret key for encryption or decryption using a password
+    private @NotNull SecretKey generateKey(@NotNull String password) throws GeneralSecurityException {
         SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        KeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
+        KeySpec keySpec = new PBEKeySpec(password.toCharArray(), SALT, ITERATIONS, KEY_LENGTH);
         byte[] keyBytes = secretKeyFactory.generateSecret(keySpec).getEncoded();
 
         return new SecretKeySpec(keyBytes, "AES");
     }
 
-    // Encrypt a file at the given path
-    private void encrypt(@NotNull Path path) {
+    // Encrypt a file at the given path, reusing its cached encrypted copy if it has not changed
+    private void encrypt(@NotNull Path path, @Nullable EncryptedFileCache cache) {
         File inputFile = new File(path.toString());
         File encryptedFile = new File(path.toString() + ".uoc");
 
+        if (cache != null && cache.restore(path)) {
+            return;
+        }
         try {
-            // Generate the secret key
-            SecretKey secretKey = generateKey(this.password);
+            // Get the secret key
+            SecretKey secretKey = getKey(this.password);
 
             // Encrypt the file
             cipherFile(secretKey, Cipher.ENCRYPT_MODE, inputFile, encryptedFile);
             if (inputFile.exists()) inputFile.delete();
         } catch (Exception e) {
-            e.printStackTrace();
+            // Keep the original file and discard any partial output
+            LOG.warn("Error encrypting file: " + inputFile, e);
+            encryptedFile.delete();
         }
     }
 
-    // Decrypt a file at the given path
-    private void decrypt(@NotNull Path path) {
+    // Decrypt a file at the given path, moving the encrypted file into the cache if there is one
+    private void decrypt(@NotNull Path path, @Nullable EncryptedFileCache cache) {
         File encryptedFile = new File(path.toString());
         String p = path.toString();
         File decryptedFile = new File(p.substring(0, p.length() - 4));
 
         try {
-            // Generate a secret key
-            SecretKey secretKey = generateKey(password);
+            // Get the secret key
+            SecretKey secretKey = getKey(password);
 
             // Decrypt the file
             if (encryptedFile.exists()) {
                 cipherFile(secretKey, Cipher.DECRYPT_MODE, encryptedFile, decryptedFile);
-                encryptedFile.delete();
+                cacheOrDelete(cache, encryptedFile, decryptedFile);
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            // Keep the encrypted file and discard any partial output
+            LOG.warn("Error decrypting file: " + encryptedFile, e);
+            decryptedFile.delete();
         }
     }
 
+    // Keep the encrypted file in the cache, or delete it if there is no cache or it cannot be stored
+    private void cacheOrDelete(@Nullable EncryptedFileCache cache, @NotNull File encryptedFile,
+                               @NotNull File decryptedFile) {
+        if (cache != null) {
+            try {
+                cache.store(encryptedFile.toPath(), decryptedFile.toPath());
+                return;
+            } catch (IOException e) {
+                LOG.warn("Error caching encrypted file: " + encryptedFile, e);
+            }
+        }
+        encryptedFile.delete();
+    }
+
     private void setHiddenProperty(File file) throws InterruptedException, IOException {
         String os = System.getProperty("os.name").toLowerCase();
         if (os.contains("win")) {
@@ -204,4 +420,60 @@ public class CipherTools {
             p.waitFor();
         }
     }
+
+    /**
+     * Key material derived from a password and salt.
+     */
+    private static final class DerivedKey {
+        private final String password;
+        private final byte[] salt;
+        private final SecretKey key;
+
+        private DerivedKey(String password, byte[] salt, SecretKey key) {
+            this.password = password;
+            this.salt = salt;
+            this.key = key;
+        }
+
+        private boolean matches(String password, byte[] salt) {
+            return this.password.equals(password) && Arrays.equals(this.salt, salt);
+        }
+    }
+
+    /**
+     * Fork/join task that splits a list of files until each task handles a single file.
+     */
+    private static final class CipherTask extends RecursiveAction {
+        private final List<Path> files;
+        private final int start;
+        private final int end;
+        private final Consumer<Path> job;
+
+        private CipherTask(List<Path> files, int start, int end, Consumer<Path> job) {
+            this.files = files;
+            this.start = start;
+            this.end = end;
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                job.accept(files.get(start));
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new CipherTask(files, start, middle, job), new CipherTask(files, middle, end, job));
+        }
+    }
+
+    /**
+     * Input and output buffers for streaming a file through the cipher.
+     * They are heap buffers because the cipher works on their backing arrays without copying.
+     */
+    private static final class CipherBuffers {
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        // One extra block for the data held by the cipher and one for the padding
+        private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE + 32);
+    }
 }
\ No newline at end of file
@@ -1,20 +1,25 @@
 package edu.uoc.allago.uocsubmissionsystem;
 
 import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.progress.ProgressIndicator;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * This class allows compressing directories into .zip files
@@ -22,11 +27,23 @@ import java.util.zip.ZipOutputStream;
  */
 public class DirToZip {
 
+    // File that is never excluded
+    private static final Pattern ALLOWED_FILE = Pattern.compile("\\.uoc\\.data\\.uoc$");
+
+    // Time of the entries that are not read from a file. The files keep their own, so that the same
+    // project gives the same .zip file, and the same upload id, every time it is exported
+    private static final long GENERATED_ENTRY_TIME = 0;
+
     // Files that will be excluded from the .zip file
-    private final ArrayList<Pattern> excluded = new ArrayList<>();
+    private final ArrayList<String> excluded = new ArrayList<>();
+    // All the excluded patterns combined into one alternation, so each path is matched once
+    private Pattern excludedPattern;
+    // Shows the file being processed and cancels the walk, if set
+    private ProgressIndicator indicator;
 
     private void exclude(String regex) {
-        excluded.add(Pattern.compile(regex));
+        excluded.add("(?:" + regex + ")");
+        excludedPattern = Pattern.compile(String.join("|", excluded));
     }
 
     /**
@@ -53,21 +70,77 @@ public class DirToZip {
         }
     }
 
+    /**
+     * Sets the progress indicator that shows the file being processed. Canceling it stops the walk
+     * with a ProcessCanceledException.
+     *
+     * @param indicator The progress indicator, or null to show no progress.
+     */
+    public void setProgressIndicator(@Nullable ProgressIndicator indicator) {
+        this.indicator = indicator;
+    }
+
     private boolean toExclude(String path) {
-        Pattern ALLOWED_FILE = Pattern.compile("\\.uoc\\.data\\.uoc$");
-        Matcher matcher = ALLOWED_FILE.matcher(path);
-        if (matcher.find()) {
+        if (excludedPattern == null || ALLOWED_FILE.matcher(path).find()) {
             // Do not exclude if it is the allowed file
             return false;
         }
+        return excludedPattern.matcher(path).find();
+    }
 
-        for (Pattern pattern : excluded) {
-            matcher = pattern.matcher(path);
-            if (matcher.find()) {
-                return true;
-            }
+    /**
+     * Walks a directory tree in the same order as Files.walk, passing every path that is not excluded
+     * to the action. Directories whose content is entirely excluded are not descended into.
+     *
+     * @param root      The directory to walk.
+     * @param matchPath Builds the string matched against the exclusion patterns for a path.
+     * @param action    The action performed for each path that is not excluded, it stops the walk by throwing
+     *                  an UncheckedIOException.
+     * @throws IOException If the root directory cannot be read, or the action failed.
+     */
+    private void walkIncluded(@NotNull Path root, @NotNull Function<Path, String> matchPath,
+                              @NotNull Consumer<Path> action) throws IOException {
+        try {
+            walk(root, matchPath, action);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return false;
+    }
+
+    private void walk(@NotNull Path root, @NotNull Function<Path, String> matchPath,
+                      @NotNull Consumer<Path> action) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String path = matchPath.apply(dir);
+                if (!toExclude(path)) {
+                    action.accept(dir);
+                }
+                // If the directory matches with a trailing separator, so does everything inside it
+                return toExclude(path + File.separator) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!toExclude(matchPath.apply(file))) {
+                    if (indicator != null) {
+                        indicator.checkCanceled();
+                        indicator.setText2(root.relativize(file).toString());
+                    }
+                    action.accept(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (file.equals(root)) {
+                    throw exc;
+                }
+                System.err.println(exc.getLocalizedMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
     }
 
     private boolean isAndroidStudio() {
@@ -78,82 +151,126 @@ public class DirToZip {
 
 
     /**
-     * Compresses the specified directory into a .zip file.
+     * Compresses the specified directory into a .zip file in a single pass, encrypting on the fly every
+     * file that is encrypted when a project is closed and storing it as "&lt;file&gt;.uoc".
+     * The data file is written from the given content instead of being read from the directory.
+     * Every entry has the modification time of its file, so the .zip file only changes when the project does.
      *
      * @param sourceDirPath The path of the directory to be compressed.
      * @param stream        The OutputStream to write the .zip file to.
+     * @param cipherTools   The CipherTools used to encrypt the files.
+     * @param dataFile      The name of the data file, relative to the directory.
+     * @param dataContent   The plain content of the data file.
      * @throws IOException If there is an issue creating the .zip file.
      */
-    public void zip(String sourceDirPath, OutputStream stream) throws IOException {
-        try (ZipOutputStream zs = new ZipOutputStream(stream)) {
-            Path pp = Paths.get(sourceDirPath);
-            Files.walk(pp)
-                    .forEach(path -> {
-                        if (!toExclude(path.toString())) {
-                            String relativePath = pp.relativize(path).toString();
-                            if (File.separatorChar != '/') {
-                                relativePath = relativePath.replace('\\', '/');
-                            }
-                            ZipEntry zipEntry = new ZipEntry(relativePath + (Files.isDirectory(path) ? "/" : ""));
-                            try {
-                                zs.putNextEntry(zipEntry);
-                                if (!Files.isDirectory(path)) {
-                                    Files.copy(path, zs);
-                                }
-                                zs.closeEntry();
-                            } catch (IOException e) {
-                                System.err.println(e.getLocalizedMessage());
-                            }
-                        }
-                    });
-            zs.flush();
-        }
+    public void zipEncrypted(String sourceDirPath, OutputStream stream, @NotNull CipherTools cipherTools,
+                             @NotNull String dataFile, byte @NotNull [] dataContent) throws IOException {
+        zipEncrypted(sourceDirPath, stream, cipherTools, dataFile, dataContent, null, null);
     }
 
     /**
-     * Copies the specified directory to a temporary directory,
-     * excluding files and folders based on the exclusion patterns.
+     * Compresses the specified directory into an encrypted .zip file like
+     * {@link #zipEncrypted(String, OutputStream, CipherTools, String, byte[])}, recording the hash of every
+     * entry in a manifest that is written as the last entry. Files whose hash has not changed since the
+     * previous manifest are left out, so that the .zip file only holds what changed since then.
      *
-     * @param sourceDirPath The path of the directory to be copied.
-     * @throws IOException If there is an issue copying the directory.
+     * @param sourceDirPath The path of the directory to be compressed.
+     * @param stream        The OutputStream to write the .zip file to.
+     * @param cipherTools   The CipherTools used to encrypt the files.
+     * @param dataFile      The name of the data file, relative to the directory.
+     * @param dataContent   The plain content of the data file.
+     * @param previous      The manifest of the previous submission, or null to include every file.
+     * @param manifest      The manifest where the hashes are recorded, or null to write no manifest.
+     * @throws IOException If there is an issue creating the .zip file.
      */
-    public void copyToTemp(String sourceDirPath) throws IOException {
-        Path sourcePath = Paths.get(sourceDirPath);
-        Path destinationPath = Paths.get(System.getProperty("java.io.tmpdir") + "/uoctemp");
+    public void zipEncrypted(String sourceDirPath, OutputStream stream, @NotNull CipherTools cipherTools,
+                             @NotNull String dataFile, byte @NotNull [] dataContent,
+                             @Nullable SubmissionManifest previous, @Nullable SubmissionManifest manifest)
+            throws IOException {
+        Path pp = Paths.get(sourceDirPath);
+        if (!Files.isDirectory(pp)) {
+            throw new NoSuchFileException(sourceDirPath);
+        }
+        try (ParallelZipWriter zs = createZipWriter(stream)) {
+            try {
+                // Write the encrypted data file
+                zs.putEntry(dataFile + ".uoc", GENERATED_ENTRY_TIME, out -> {
+                    try (OutputStream encrypted = cipherTools.encryptingStream(out)) {
+                        encrypted.write(dataContent);
+                    }
+                });
+
+                // Match the exclusion patterns against the path inside the project only
+                walkIncluded(pp, path -> File.separator + pp.relativize(path),
+                        path -> putEncrypted(zs, pp, path, cipherTools, dataFile, previous, manifest));
 
-        // Ensure temp directory exists
-        if (!Files.exists(destinationPath)) {
-            Files.createDirectories(destinationPath);
+                if (manifest != null) {
+                    byte[] manifestContent = manifest.toBytes();
+                    zs.putEntry(SubmissionManifest.ENTRY_NAME, GENERATED_ENTRY_TIME, out -> out.write(manifestContent));
+                }
+            } catch (IOException | RuntimeException e) {
+                // Do not finish the zip file once a write has failed or the export is canceled
+                zs.cancel();
+                throw e;
+            }
         }
+    }
 
-        Files.walk(sourcePath)
-                .filter(path -> !path.equals(destinationPath)) // Excluir la carpeta temporal
-                .forEach(path -> {
-                    if (!toExclude(path.toString()) && !isSubPath(destinationPath, path)) {
-                        Path targetPath = destinationPath.resolve(sourcePath.relativize(path));
-                        try {
-                            if (Files.isDirectory(path)) {
-                                if (!Files.exists(targetPath)) {
-                                    Files.createDirectories(targetPath);
-                                }
-                            } else {
-                                Files.copy(path, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                            }
-                        } catch (IOException e) {
-                            System.err.println(e.getLocalizedMessage());
-                        }
+    // Add a file or directory of the project to an encrypted .zip file, stopping the walk if it cannot be added
+    private void putEncrypted(@NotNull ParallelZipWriter zs, @NotNull Path pp, @NotNull Path path,
+                              @NotNull CipherTools cipherTools, @NotNull String dataFile,
+                              @Nullable SubmissionManifest previous, @Nullable SubmissionManifest manifest) {
+        String relativePath = pp.relativize(path).toString();
+        // The data content already includes the event journal
+        if (relativePath.equals(dataFile) || relativePath.equals(dataFile + ".uoc")
+                || relativePath.equals(dataFile + EventJournal.FILE_SUFFIX)) {
+            return;
+        }
+        if (File.separatorChar != '/') {
+            relativePath = relativePath.replace('\\', '/');
+        }
+        long lastModified = lastModified(path);
+        try {
+            if (Files.isDirectory(path)) {
+                zs.putDirectory(relativePath + "/", lastModified);
+                return;
+            }
+            boolean encryptable = cipherTools.isEncryptable(pp, path);
+            String entryName = encryptable ? relativePath + ".uoc" : relativePath;
+            if (manifest != null) {
+                String hash = SubmissionManifest.hash(path);
+                manifest.put(entryName, hash);
+                // Unchanged since the previous submission
+                if (previous != null && hash.equals(previous.get(entryName))) return;
+            }
+            if (encryptable) {
+                zs.putEntry(entryName, lastModified, out -> {
+                    try (OutputStream encrypted = cipherTools.encryptingStream(out)) {
+                        Files.copy(path, encrypted);
                     }
                 });
+            } else {
+                zs.putEntry(entryName, lastModified, out -> Files.copy(path, out));
+            }
+        } catch (IOException e) {
+            // A file that cannot be read, or a zip file that can no longer be written, fails the export
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private boolean isSubPath(Path basePath, @NotNull Path checkPath) {
-        Path parentPath = checkPath.getParent();
-        while (parentPath != null) {
-            if (parentPath.equals(basePath)) {
-                return true;
-            }
-            parentPath = parentPath.getParent();
+    // Modification time of a file, or the time of the generated entries if it cannot be read
+    private static long lastModified(@NotNull Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return GENERATED_ENTRY_TIME;
         }
-        return false;
+    }
+
+    // Create a zip writer using the number of threads and the compression level set in config.properties
+    private @NotNull ParallelZipWriter createZipWriter(OutputStream stream) {
+        int configured = PropertiesLoader.getIntProperty("zipParallelism");
+        int parallelism = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+        return new ParallelZipWriter(stream, parallelism, PropertiesLoader.getIntProperty("zipCompressionLevel"));
     }
 }
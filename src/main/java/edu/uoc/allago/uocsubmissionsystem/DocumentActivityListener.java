@@ -0,0 +1,128 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.FileStatusListener;
+import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Logs the changes the user makes to the documents of a project. It runs on the EDT on every keystroke, so it
+ * only filters the change, finds its line in the line index of the document and hands it to the
+ * UserActionLogger, which logs it in the background. Whether a document belongs to the project and is not
+ * ignored is resolved on its first change and kept in the document, until a file is renamed or moved or the
+ * status of a file changes, which is when the verdict may no longer hold.
+ */
+public class DocumentActivityListener implements DocumentListener, FileStatusListener {
+
+    private static final Key<DocumentInfo> DOCUMENT_INFO = Key.create("uoc.document.info");
+
+    private final Project project;
+    private final UserActionLogger userActionLogger;
+    private final int minAdded;
+    private final BooleanSupplier loggingEnabled;
+    // Incremented when the verdicts kept in the documents may be stale
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Creates the listener of a project.
+     *
+     * @param project          the project
+     * @param userActionLogger the logger of the project
+     * @param minAdded         the minimum number of characters added for the code to be logged
+     * @param loggingEnabled   checked first on every change, false while nothing has to be logged
+     */
+    public DocumentActivityListener(@NotNull Project project, @NotNull UserActionLogger userActionLogger,
+                                    int minAdded, @NotNull BooleanSupplier loggingEnabled) {
+        this.project = project;
+        this.userActionLogger = userActionLogger;
+        this.minAdded = minAdded;
+        this.loggingEnabled = loggingEnabled;
+    }
+
+    /**
+     * Forgets the verdicts of the documents if a batch of file events renames or moves a file, which can move
+     * it in or out of the project or of an ignored directory.
+     *
+     * @param events the file events
+     */
+    public void invalidate(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (event instanceof VFileMoveEvent
+                    || event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                generation.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // A file may have been ignored or stopped being ignored, for example after a change to .gitignore
+    @Override
+    public void fileStatusesChanged() {
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public void fileStatusChanged(@NotNull VirtualFile virtualFile) {
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        if (!loggingEnabled.getAsBoolean()) return;
+
+        Document document = event.getDocument();
+        DocumentInfo info = documentInfo(document);
+        if (info.file == null || CommandProcessor.getInstance().isUndoTransparentActionInProgress()) return;
+
+        // Keep only a reference to the new text of a large change, it is processed in the background
+        CharSequence addedCode = event.getNewLength() - event.getOldLength() > minAdded ? event.getNewFragment() : null;
+        userActionLogger.writeChange(info.file, document.getLineNumber(event.getOffset()) + 1, addedCode);
+    }
+
+    // Resolve the file of a document the first time it changes, and again once the verdict may be stale
+    private @NotNull DocumentInfo documentInfo(@NotNull Document document) {
+        int current = generation.get();
+        DocumentInfo info = document.getUserData(DOCUMENT_INFO);
+        if (info == null || info.project != project || info.generation != current) {
+            VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+            boolean logged = file != null && project.equals(ProjectUtil.guessProjectForFile(file)) &&
+                    !FileStatus.IGNORED.equals(FileStatusManager.getInstance(project).getStatus(file));
+            info = new DocumentInfo(project, current, logged ? file : null);
+            document.putUserData(DOCUMENT_INFO, info);
+        }
+        return info;
+    }
+
+    /**
+     * File of a document of the project, or null if its changes are not logged. The verdict is valid for
+     * the project it was resolved for, while its generation is the current one.
+     */
+    private static final class DocumentInfo {
+        private final Project project;
+        private final int generation;
+        private final VirtualFile file;
+
+        private DocumentInfo(@NotNull Project project, int generation, @Nullable VirtualFile file) {
+            this.project = project;
+            this.generation = generation;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collapses the edits made to each file within a time window into a single modification event that holds
+ * the first and last line edited. Files are told apart by their path, only their name is logged. Every file has its own window, so switching between files does not log
+ * an event per edit, and a long session in one file logs an event per window instead of dropping its edits.
+ * <p>
+ * A window is written to the event buffer when the file is edited after it ends, when the buffer is flushed,
+ * or when too many files are being tracked and it is the one edited least recently.
+ */
+public class EditCoalescer {
+
+    private final long windowNanos;
+    private final int maxFiles;
+    private final EventBuffer target;
+
+    // Open window of every file by path, the least recently edited first
+    private final LinkedHashMap<String, Window> windows;
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param windowNanos the length of a window, in nanoseconds
+     * @param maxFiles    the number of files whose window is kept open at the same time
+     * @param target      the buffer the events are added to
+     */
+    public EditCoalescer(long windowNanos, int maxFiles, @NotNull EventBuffer target) {
+        this.windowNanos = windowNanos;
+        this.maxFiles = maxFiles;
+        this.target = target;
+        this.windows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                if (size() <= EditCoalescer.this.maxFiles) return false;
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Records an edit.
+     *
+     * @param path      the path of the file
+     * @param file      the name of the file
+     * @param line      the line edited
+     * @param nanoTime  when it happened, from System.nanoTime()
+     * @param epochTime when it happened, in milliseconds since the epoch
+     */
+    public synchronized void modified(@NotNull String path, @NotNull String file, int line, long nanoTime,
+                                      long epochTime) {
+        Window window = windows.get(path);
+        if (window != null && nanoTime - window.start < windowNanos) {
+            window.firstLine = Math.min(window.firstLine, line);
+            window.lastLine = Math.max(window.lastLine, line);
+            return;
+        }
+        if (window != null) {
+            close(window);
+        }
+        windows.put(path, new Window(file, nanoTime, epochTime, line));
+    }
+
+    public synchronized boolean isEmpty() {
+        return windows.isEmpty();
+    }
+
+    /**
+     * Writes every open window to the buffer.
+     */
+    public synchronized void closeAll() {
+        Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            close(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private void close(@NotNull Window window) {
+        target.add(new EventBuffer.Event(EventBuffer.Type.MD, window.epochStart, window.firstLine, window.lastLine,
+                window.file, null));
+    }
+
+    /**
+     * Edits made to a file since the start of its window.
+     */
+    private static final class Window {
+        private final String file;
+        private final long start;
+        private final long epochStart;
+        private int firstLine;
+        private int lastLine;
+
+        private Window(String file, long start, long epochStart, int line) {
+            this.file = file;
+            this.start = start;
+            this.epochStart = epochStart;
+            this.firstLine = line;
+            this.lastLine = line;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the encrypted copy of every file decrypted when a project is opened, together with a manifest
+ * of the size and content hash of the decrypted file. When the project is closed, files that have
+ * not changed get their cached encrypted copy back instead of being encrypted again.
+ */
+public class EncryptedFileCache {
+
+    private static final Logger LOG = Logger.getInstance(EncryptedFileCache.class);
+    private static final String MANIFEST = "manifest.properties";
+
+    private final Path baseDir;
+    private final Path cacheDir;
+    // Relative path of each decrypted file and its size and SHA-256
+    private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a cache for the files of a project.
+     *
+     * @param baseDir  the base directory of the project
+     * @param cacheDir the directory where encrypted copies and the manifest are kept
+     */
+    public EncryptedFileCache(@NotNull Path baseDir, @NotNull Path cacheDir) {
+        this.baseDir = baseDir;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Creates the cache of a project, kept inside the IDE system directory.
+     *
+     * @param project the project
+     * @return the cache of the project, or null if incremental encryption is disabled in config.properties
+     */
+    public static @Nullable EncryptedFileCache forProject(@NotNull Project project) {
+        String basePath = project.getBasePath();
+        if (basePath == null || !"yes".equals(PropertiesLoader.getProperty("incrementalEncryption"))) {
+            return null;
+        }
+        Path cacheDir = Paths.get(PathManager.getSystemPath(), "uocsubmissionsystem", "cache",
+                project.getLocationHash());
+        return new EncryptedFileCache(Paths.get(basePath), cacheDir);
+    }
+
+    /**
+     * Moves the encrypted copy of a file into the cache and records the state of its decrypted version.
+     *
+     * @param encryptedFile the encrypted file that has just been decrypted
+     * @param decryptedFile the decrypted file
+     * @throws IOException if the encrypted file cannot be moved into the cache
+     */
+    public void store(@NotNull Path encryptedFile, @NotNull Path decryptedFile) throws IOException {
+        String relativePath = baseDir.relativize(decryptedFile).toString();
+        Path cachedFile = cacheDir.resolve(relativePath + ".uoc");
+        Files.createDirectories(cachedFile.getParent());
+        Files.move(encryptedFile, cachedFile, StandardCopyOption.REPLACE_EXISTING);
+        entries.put(relativePath, stamp(decryptedFile));
+    }
+
+    /**
+     * Puts back the cached encrypted copy of a file if the file has not changed since it was decrypted,
+     * and deletes the decrypted file.
+     *
+     * @param file the decrypted file
+     * @return true if the cached copy was restored, false if the file has to be encrypted again
+     */
+    public boolean restore(@NotNull Path file) {
+        String relativePath = baseDir.relativize(file).toString();
+        String recorded = entries.get(relativePath);
+        Path cachedFile = cacheDir.resolve(relativePath + ".uoc");
+
+        try {
+            // The file is only hashed if its size has not changed
+            if (recorded == null || !recorded.startsWith(Files.size(file) + ":") || !Files.isRegularFile(cachedFile)
+                    || !recorded.equals(stamp(file))) {
+                return false;
+            }
+            Files.move(cachedFile, Paths.get(file + ".uoc"), StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(file);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Error restoring cached file: " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the manifest written when the project was opened.
+     */
+    public void load() {
+        Path manifest = cacheDir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return;
+
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(manifest)) {
+            properties.load(input);
+            properties.stringPropertyNames().forEach(key -> entries.put(key, properties.getProperty(key)));
+        } catch (IOException e) {
+            LOG.warn("Error loading the encrypted file cache manifest", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the manifest so that it can be used when the project is closed.
+     */
+    public void save() {
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        try {
+            Files.createDirectories(cacheDir);
+            try (OutputStream output = Files.newOutputStream(cacheDir.resolve(MANIFEST))) {
+                properties.store(output, null);
+            }
+        } catch (IOException e) {
+            LOG.warn("Error saving the encrypted file cache manifest", e);
+        }
+    }
+
+    /**
+     * Deletes the cache directory and forgets every entry.
+     */
+    public void clear() {
+        entries.clear();
+        if (!Files.exists(cacheDir)) return;
+
+        try (Stream<Path> paths = Files.walk(cacheDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    LOG.warn("Error deleting cached file: " + path, e);
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Error clearing the encrypted file cache", e);
+        }
+    }
+
+    // Size and SHA-256 of a file, the modification time is too coarse on some file systems to notice an edit
+    // made right after the file was decrypted
+    private @NotNull String stamp(@NotNull Path file) throws IOException {
+        return Files.size(file) + ":" + Hashes.sha256(file);
+    }
+}
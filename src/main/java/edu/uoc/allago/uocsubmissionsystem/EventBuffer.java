@@ -0,0 +1,308 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Events logged in a project that have not been written to its journal yet. Every project has its own buffer,
+ * shared by all the UserActionLogger instances created for it.
+ * <p>
+ * Adding an event never takes a lock. A flush takes the events out of the buffer one by one, so an event added
+ * while it runs is either written by it or left for the next one, and the events are put back if they cannot
+ * be written.
+ */
+public class EventBuffer {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    // Formatted minute of the last event written, shared by all threads
+    private static volatile TimePrefix timePrefix;
+
+    // Buffer of every open project, by base directory
+    private static final Map<String, EventBuffer> BUFFERS = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedDeque<Event> events = new ConcurrentLinkedDeque<>();
+    // Keeps the events in order when two flushes run at the same time
+    private final Object flushLock = new Object();
+    private final EditCoalescer coalescer;
+    // Characters of pasted code held by the buffered events
+    private final AtomicLong pastedCode = new AtomicLong();
+    private volatile boolean released;
+
+    /**
+     * Creates a buffer that collapses the edits made to a file within minTimeBetweenLogs seconds.
+     */
+    public EventBuffer() {
+        coalescer = new EditCoalescer(TimeUnit.SECONDS.toNanos(PropertiesLoader.getIntProperty("minTimeBetweenLogs")),
+                PropertiesLoader.getIntProperty("maxCoalescedFiles"), this);
+    }
+
+    /**
+     * Returns the buffer of a project, creating it if needed.
+     *
+     * @param baseDir the base directory of the project
+     * @return the buffer of the project
+     */
+    public static @NotNull EventBuffer forProject(@Nullable String baseDir) {
+        return BUFFERS.computeIfAbsent(String.valueOf(baseDir), dir -> new EventBuffer());
+    }
+
+    /**
+     * Forgets the buffer of a closed project.
+     *
+     * @param baseDir the base directory of the project
+     */
+    public static void release(@Nullable String baseDir) {
+        EventBuffer buffer = BUFFERS.remove(String.valueOf(baseDir));
+        if (buffer != null) {
+            buffer.released = true;
+        }
+    }
+
+    public void add(@NotNull Event event) {
+        if (event.code != null) {
+            pastedCode.addAndGet(event.code.length());
+        }
+        events.add(event);
+    }
+
+    /**
+     * Returns the number of characters of pasted code held by the buffered events.
+     *
+     * @return the size of the pasted code not written yet
+     */
+    public long getPastedCodeSize() {
+        return pastedCode.get();
+    }
+
+    /**
+     * Checks if the project of the buffer was closed, so that nothing else will write its events.
+     *
+     * @return true if the buffer was released
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Adds the edit of a file, collapsed with the other edits made to it in the same time window.
+     *
+     * @param path the path of the file, edits to files with the same name in other directories are not collapsed
+     * @param file the name of the file
+     * @param line the line edited
+     */
+    public void addModification(@NotNull String path, @NotNull String file, int line) {
+        coalescer.modified(path, file, line, System.nanoTime(), System.currentTimeMillis());
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty() && coalescer.isEmpty();
+    }
+
+    /**
+     * Takes all the buffered events, including the edits still being collapsed, and hands them to a writer.
+     * If the writer fails, the events are put back in front of the ones added in the meantime.
+     *
+     * @param writer receives the events, in the order they happened
+     * @throws IOException if the writer fails
+     */
+    public void flush(@NotNull EventWriter writer) throws IOException {
+        synchronized (flushLock) {
+            coalescer.closeAll();
+            List<Event> drained = new ArrayList<>();
+            Event event;
+            while ((event = events.pollFirst()) != null) {
+                if (event.code != null) {
+                    pastedCode.addAndGet(-event.code.length());
+                }
+                drained.add(event);
+            }
+            if (drained.isEmpty()) return;
+            // Collapsed edits are added when their window ends, after the events that followed them
+            drained.sort(Comparator.comparingLong(Event::getTime));
+
+            try {
+                writer.write(drained);
+            } catch (IOException | RuntimeException e) {
+                for (int i = drained.size() - 1; i >= 0; i--) {
+                    Event failed = drained.get(i);
+                    if (failed.code != null) {
+                        pastedCode.addAndGet(failed.code.length());
+                    }
+                    events.addFirst(failed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of events taken from a buffer.
+     */
+    public interface EventWriter {
+        void write(@NotNull List<Event> events) throws IOException;
+    }
+
+    /**
+     * Kind of event, written as the first two characters of its line in the uoc.data file.
+     */
+    public enum Type {
+        /** The project was opened. */
+        OP,
+        /** The project was closed. */
+        CL,
+        /** A file was modified. */
+        MD,
+        /** A file was created. */
+        CR,
+        /** A file was deleted. */
+        DL
+    }
+
+    /**
+     * An event logged by UserActionLogger.
+     */
+    public static final class Event {
+        private final Type type;
+        private final long time;
+        private final int line;
+        private final int lastLine;
+        private final String file;
+        private final String code;
+
+        /**
+         * Creates an event.
+         *
+         * @param type the kind of event
+         * @param time when it happened, in milliseconds since the epoch
+         * @param line the line that was modified, or 0 if it does not apply
+         * @param file the name of the file, or null if it does not apply
+         * @param code the code that was pasted, or null if it does not apply
+         */
+        public Event(@NotNull Type type, long time, int line, @Nullable String file, @Nullable String code) {
+            this(type, time, line, line, file, code);
+        }
+
+        /**
+         * Creates an event for a range of lines.
+         *
+         * @param type     the kind of event
+         * @param time     when it happened, in milliseconds since the epoch
+         * @param line     the first line that was modified
+         * @param lastLine the last line that was modified
+         * @param file     the name of the file, or null if it does not apply
+         * @param code     the code that was pasted, or null if it does not apply
+         */
+        public Event(@NotNull Type type, long time, int line, int lastLine, @Nullable String file,
+                     @Nullable String code) {
+            this.type = type;
+            this.time = time;
+            this.line = line;
+            this.lastLine = lastLine;
+            this.file = file;
+            this.code = code;
+        }
+
+        public @NotNull Type getType() {
+            return type;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getLastLine() {
+            return lastLine;
+        }
+
+        public @Nullable String getFile() {
+            return file;
+        }
+
+        public @Nullable String getCode() {
+            return code;
+        }
+
+        /**
+         * Appends the event as it is written to the uoc.data file.
+         *
+         * @param sb the builder the event is appended to
+         */
+        public void appendTo(@NotNull StringBuilder sb) {
+            sb.append(type.name());
+            appendTime(sb, time);
+            switch (type) {
+                case MD:
+                    sb.append("Line: ").append(line);
+                    if (lastLine != line) {
+                        sb.append('-').append(lastLine);
+                    }
+                    sb.append("     File: ").append(file);
+                    if (code != null) {
+                        sb.append("     PASTED CODE:").append(NEW_LINE).append(NEW_LINE)
+                                .append(code).append(NEW_LINE).append(NEW_LINE);
+                    } else {
+                        sb.append(NEW_LINE);
+                    }
+                    break;
+                case CR:
+                case DL:
+                    sb.append(" File: ").append(file).append(NEW_LINE);
+                    break;
+                default:
+                    sb.append(NEW_LINE);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            appendTo(sb);
+            return sb.toString();
+        }
+
+        // Append the time as "     H:M     (d-M-yyyy)     ", formatting it only once per minute
+        private static void appendTime(@NotNull StringBuilder sb, long time) {
+            TimePrefix prefix = timePrefix;
+            if (prefix == null || time < prefix.from || time >= prefix.until) {
+                prefix = new TimePrefix(time);
+                timePrefix = prefix;
+            }
+            sb.append(prefix.text);
+        }
+    }
+
+    /**
+     * Time of an event as it is written, valid for every event of the same minute.
+     */
+    private static final class TimePrefix {
+        private final long from;
+        private final long until;
+        private final String text;
+
+        private TimePrefix(long time) {
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+            from = time - dateTime.getSecond() * 1000L - dateTime.getNano() / 1_000_000;
+            until = from + 60_000;
+            text = "     " + dateTime.getHour() + ":" + dateTime.getMinute() +
+                    "     (" + dateTime.getDayOfMonth() + "-" + dateTime.getMonthValue() + "-" + dateTime.getYear() + ")     ";
+        }
+    }
+}
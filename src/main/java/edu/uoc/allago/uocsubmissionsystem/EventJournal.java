@@ -0,0 +1,217 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only journal of the events logged since the uoc.data file was created. Every flush of the logger
+ * adds one record, so its cost does not depend on the size of the log and no plain text is written to disk.
+ * <p>
+ * A record is "&lt;length&gt;&lt;nonce&gt;&lt;ciphertext and tag&gt;", encrypted with AES/GCM using a random
+ * nonce and a key derived from the plugin key. The position of the record is authenticated too, so records
+ * cannot be edited, reordered or removed from the middle of the journal without it being noticed.
+ * A record left incomplete by a crash is discarded before the next one is appended.
+ */
+public class EventJournal {
+
+    private static final Logger LOG = Logger.getInstance(EventJournal.class);
+
+    /** Suffix added to the name of the data file to get the name of its journal. */
+    public static final String FILE_SUFFIX = ".uoc.journal";
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    // Length of the encrypted part of the largest record accepted when reading
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    private static final String KEY_PURPOSE = "uoc.journal";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Number of records and size of every journal appended to in this session, shared by all instances
+    private static final Map<Path, Tail> TAILS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final CipherTools cipherTools;
+
+    /**
+     * Creates the journal of a project.
+     *
+     * @param baseDir     the base directory of the project
+     * @param dataFile    the name of the data file
+     * @param cipherTools the CipherTools whose key encrypts the journal
+     */
+    public EventJournal(String baseDir, @NotNull String dataFile, @NotNull CipherTools cipherTools) {
+        this(Paths.get(baseDir + "/" + dataFile + FILE_SUFFIX), cipherTools);
+    }
+
+    /**
+     * Creates a journal stored in the given file.
+     *
+     * @param file        the journal file
+     * @param cipherTools the CipherTools whose key encrypts the journal
+     */
+    public EventJournal(@NotNull Path file, @NotNull CipherTools cipherTools) {
+        this.file = file.toAbsolutePath().normalize();
+        this.cipherTools = cipherTools;
+    }
+
+    public @NotNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * Appends one record to the journal, creating it if it does not exist.
+     *
+     * @param content the plain content of the record
+     * @throws IOException if the record cannot be encrypted or written
+     */
+    public void append(byte @NotNull [] content) throws IOException {
+        synchronized (TAILS) {
+            boolean created = !Files.exists(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Tail tail = TAILS.get(file);
+                if (tail == null || tail.size != channel.size()) {
+                    tail = scan(channel);
+                }
+
+                byte[] nonce = new byte[NONCE_LENGTH];
+                RANDOM.nextBytes(nonce);
+                byte[] encrypted = cipher(Cipher.ENCRYPT_MODE, nonce, tail.records).doFinal(content);
+
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + NONCE_LENGTH + encrypted.length);
+                record.putInt(NONCE_LENGTH + encrypted.length).put(nonce).put(encrypted).flip();
+                channel.position(tail.size);
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(false);
+                TAILS.put(file, new Tail(tail.records + 1, channel.position()));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Error encrypting journal record: " + file, e);
+            }
+            if (created) {
+                hide(file);
+            }
+        }
+    }
+
+    /**
+     * Decrypts every record of the journal. Records that fail authentication are left out with a warning,
+     * and an incomplete record at the end is ignored.
+     *
+     * @return the plain content of the records, in the order they were appended, or nothing if there is no journal
+     * @throws IOException if the journal cannot be read
+     */
+    public byte @NotNull [] readAll() throws IOException {
+        if (!Files.exists(file)) return new byte[0];
+
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file));
+        ByteArrayOutputStream content = new ByteArrayOutputStream(journal.capacity());
+        long index = 0;
+        while (journal.remaining() >= Integer.BYTES) {
+            int length = journal.getInt();
+            if (length < NONCE_LENGTH || length > journal.remaining()) break;
+
+            byte[] nonce = new byte[NONCE_LENGTH];
+            journal.get(nonce);
+            byte[] encrypted = new byte[length - NONCE_LENGTH];
+            journal.get(encrypted);
+            try {
+                content.write(cipher(Cipher.DECRYPT_MODE, nonce, index).doFinal(encrypted));
+            } catch (AEADBadTagException e) {
+                LOG.warn("Journal record " + index + " failed authentication and was skipped: " + file);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Error decrypting journal record: " + file, e);
+            }
+            index++;
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Appends the content of the journal to a plain file and deletes the journal.
+     *
+     * @param plainFile the plain data file
+     * @throws IOException if the journal cannot be read or the file cannot be written
+     */
+    public void mergeInto(@NotNull Path plainFile) throws IOException {
+        synchronized (TAILS) {
+            if (!Files.exists(file)) return;
+            Files.write(plainFile, readAll(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            Files.delete(file);
+            TAILS.remove(file);
+        }
+    }
+
+    // Find the end of the last complete record, discarding anything written after it
+    private @NotNull Tail scan(@NotNull FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long records = 0;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        while (size - position >= Integer.BYTES) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length < NONCE_LENGTH || length > MAX_RECORD_LENGTH || position + Integer.BYTES + length > size) {
+                break;
+            }
+            position += Integer.BYTES + length;
+            records++;
+        }
+        if (position < size) {
+            LOG.warn("Discarding " + (size - position) + " bytes of an incomplete journal record: " + file);
+            channel.truncate(position);
+        }
+        return new Tail(records, position);
+    }
+
+    private @NotNull Cipher cipher(int mode, byte @NotNull [] nonce, long index) throws GeneralSecurityException, IOException {
+        SecretKey key = cipherTools.deriveKey(KEY_PURPOSE);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH, nonce));
+        cipher.updateAAD((KEY_PURPOSE + ":" + index).getBytes(StandardCharsets.UTF_8));
+        return cipher;
+    }
+
+    // Hide the journal like the data file
+    private static void hide(@NotNull Path file) {
+        try {
+            Files.setAttribute(file, "dos:hidden", true);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.debug("The journal could not be hidden: " + file, e);
+        }
+    }
+
+    /**
+     * Number of records of a journal and the position where the next one is written.
+     */
+    private static final class Tail {
+        private final long records;
+        private final long size;
+
+        private Tail(long records, long size) {
+            this.records = records;
+            this.size = size;
+        }
+    }
+}
@@ -4,17 +4,17 @@ import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFileWrapper;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Objects;
-import java.util.Properties;
 import java.util.Scanner;
 
 /**
@@ -28,11 +28,8 @@ public abstract class ExportAction extends AnAction {
     protected String baseDir;
     protected String userId;
     protected String fullName;
-    protected String password;
     protected AppSettingsState appSettingsState;
     protected String dataFile;
-    protected String uocTemp;
-    private boolean addServerAndPoolID;
 
     /**
      * Prepares the context for the action to be performed. Initializes project-specific
@@ -45,7 +42,6 @@ public abstract class ExportAction extends AnAction {
         project = event.getProject();
         if(project == null) return false;
         dataFile = PropertiesLoader.getProperty("dataFile");
-        uocTemp = System.getProperty("java.io.tmpdir") + "/uoctemp";
         // path to the current project
         baseDir = project.getBasePath();
 
@@ -56,20 +52,73 @@ public abstract class ExportAction extends AnAction {
         }
         userId = appSettingsState.userId;
         fullName = appSettingsState.fullName;
-
-        // Load properties from the configuration file
-        password = PropertiesLoader.getProperty("key");
         return true;
     }
 
     /**
      * Encrypts the project and zips it. The method first checks if the user has the necessary
-     * permissions, then creates a temporary copy of the project, encrypts user data and project files,
-     * zips it and finally deletes the temporary copy.
+     * permissions, then prepares the user data and walks the project once, encrypting each file
+     * straight into its entry of the zip file. The work is done in a background task that can be
+     * canceled, in which case the partial zip file is deleted.
      *
      * @param virtualFileWrapper The wrapper of the virtual file where the encrypted and zipped project will be saved.
      */
     protected void encryptAndZipProject(VirtualFileWrapper virtualFileWrapper) {
+        ExportContext context = checkExportable();
+        if (context == null) return;
+        Path zipFile = virtualFileWrapper.getFile().toPath();
+
+        new Task.Backgroundable(context.project, "Exporting project", true) {
+            // Set by the background thread, read on the EDT once the task has finished
+            private volatile boolean exported;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                HttpClientUploader.ZipContent zipContent =
+                        prepareEncryptedZip(context, indicator).encryptedZip(null, null);
+
+                indicator.setText("Encrypting and zipping project files");
+                try (OutputStream stream = Files.newOutputStream(zipFile)) {
+                    zipContent.writeTo(stream);
+                    exported = true;
+                } catch (IOException ex) {
+                    LOG.warn("Error saving to zip: " + zipFile, ex);
+                }
+                if (!exported) {
+                    deletePartialFile(zipFile);
+                    ApplicationManager.getApplication().invokeLater(() -> Messages.showMessageDialog(
+                            "Error exporting the project to " + zipFile + ".", "Error", Messages.getErrorIcon()));
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                if (exported) {
+                    Messages.showMessageDialog("Project exported to " + zipFile + ".", "Success",
+                            Messages.getInformationIcon());
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                deletePartialFile(zipFile);
+            }
+
+            @Override
+            public void onThrowable(@NotNull Throwable error) {
+                deletePartialFile(zipFile);
+                super.onThrowable(error);
+            }
+        }.queue();
+    }
+
+    /**
+     * Checks that the project can be exported and asks the user what to export. It shows dialogs,
+     * so it must be called before the export is moved to the background.
+     *
+     * @return The project to export and what to export, or null if the project cannot be exported.
+     */
+    protected @Nullable ExportContext checkExportable() {
 
         // Cancel if the project is not from UOC
         if(!isAdminUser()){
@@ -83,153 +132,116 @@ public abstract class ExportAction extends AnAction {
                             Messages.getWarningIcon()
                     );
                 });
-                return;
+                return null;
             }
         }
         // Prepare the project to be exported
-        confirmAddServerAndPoolId();
+        return new ExportContext(project, baseDir, dataFile, confirmAddServerAndPoolId());
+    }
 
-        UserActionLogger userActionLogger = new UserActionLogger(project);
+    /**
+     * Prepares the export of the project: writes the pending events and builds the content of the data file.
+     * The zip itself is written later by the returned export, either to a file or straight into an upload.
+     * It must be called from a background task, after {@link #checkExportable()}.
+     *
+     * @param context   The project to export, from {@link #checkExportable()}.
+     * @param indicator The progress indicator of the task, also used to cancel the export.
+     * @return Writes the encrypted project as a zip file.
+     */
+    protected @NotNull PreparedExport prepareEncryptedZip(@NotNull ExportContext context,
+                                                          @NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(true);
+        // Files that are still encrypted would be left out
+        BackgroundDecryption.awaitCompletion(context.baseDir, indicator);
+        indicator.checkCanceled();
+
+        indicator.setText("Writing user events");
+        UserActionLogger userActionLogger = new UserActionLogger(context.project);
         userActionLogger.writeBufferedEventsToFile();
+        indicator.checkCanceled();
 
-        DirToZip dirToZip = createTempProjectFolder();
-
-        CipherTools cipherTools = handleUserDataEncryption(uocTemp + "/" + dataFile);
-
-        encryptTempFolder(uocTemp + "/" + dataFile, cipherTools);
+        indicator.setText("Preparing data file");
+        CipherTools cipherTools = new CipherTools();
+        byte[] dataContent = createDataFileContent(context, cipherTools);
+        indicator.checkCanceled();
 
-        saveEncryptedProjectToZip(dirToZip, virtualFileWrapper);
+        return new PreparedExport(context, cipherTools, dataContent, indicator);
+    }
 
-        deleteTempFolder();
+    // Delete what was written of a file when the export is canceled or fails
+    protected void deletePartialFile(@NotNull Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            LOG.warn("Error deleting partial file: " + file, ex);
+        }
     }
 
-    private void confirmAddServerAndPoolId() {
+    // Ask an admin if the server and pool ID have to be added to the uoc.data file
+    private boolean confirmAddServerAndPoolId() {
         if (isAdminUser()) {
-            addServerAndPoolID = false;
             int result = Messages.showYesNoDialog(
                     "If a server and pool ID have been entered in the settings, should they be added to the uoc.data file?",
                     "Confirm",
                     Messages.getQuestionIcon()
             );
 
-            if (result == Messages.YES) {
-                addServerAndPoolID = true;
-            }
+            return result == Messages.YES;
         }
+        return false;
     }
 
-    private @NotNull DirToZip createTempProjectFolder() {
-        DirToZip dirToZip = new DirToZip();
-        try {
-            dirToZip.copyToTemp(baseDir);
-        } catch (IOException ex) {
-            LOG.error("Error when creating a temporary folder containing the project, " +
-                    "encryptAndZipProject(VirtualFileWrapper virtualFileWrapper)", ex);
-            throw new RuntimeException(ex);
-        }
-        return dirToZip;
-    }
-
-    private @NotNull CipherTools handleUserDataEncryption(String dataFilePath) {
-        CipherTools cipherTools = new CipherTools();
-        if (!isAdminUser()) {
-            cipherTools.decryptFile(dataFilePath + ".uoc");
-            setUserData(dataFilePath);
-
-            if (isNullOrEmpty(appSettingsState.server))
-                appSettingsState.server = getServerPoolIDValue(dataFilePath, 1);
-            if (isNullOrEmpty(appSettingsState.poolID))
-                appSettingsState.poolID = getServerPoolIDValue(dataFilePath, 2);
-        }
-        return cipherTools;
-    }
-
-    private void encryptTempFolder(String dataFilePath, @NotNull CipherTools cipherTools) {
-        UData();
-        cipherTools.encryptFile(dataFilePath);
-        cipherTools.encryptProject(uocTemp);
-    }
-
-    private void saveEncryptedProjectToZip(@NotNull DirToZip dirToZip,
-                                           @NotNull VirtualFileWrapper virtualFileWrapper) {
-        try (OutputStream stream = Files.newOutputStream(virtualFileWrapper.getFile().toPath())) {
-            dirToZip.excludeStandard();
-            dirToZip.zip(uocTemp, stream);
-        } catch (IOException ex) {
-            LOG.error("Error saving to zip", ex);
+    /**
+     * Builds the plain content of the uoc.data file to be exported. For an admin it only holds
+     * the server and pool info, otherwise it is the decrypted data file followed by the events of its
+     * journal and the user data.
+     *
+     * @param context     The project to export.
+     * @param cipherTools The CipherTools used to decrypt the data file.
+     * @return The content of the uoc.data file.
+     */
+    private byte @NotNull [] createDataFileContent(@NotNull ExportContext context, @NotNull CipherTools cipherTools) {
+        if (isAdminUser()) {
+            return UData(context.addServerAndPoolID).getBytes(StandardCharsets.UTF_8);
         }
-    }
+        String baseDir = context.baseDir;
+        String dataFile = context.dataFile;
 
-    private void deleteTempFolder() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
         try {
-            deleteDirectory(uocTemp);
+            content.write(cipherTools.decryptToBytes(Paths.get(baseDir, dataFile + ".uoc")));
+            content.write(new EventJournal(baseDir, dataFile, cipherTools).readAll());
+            content.write(getUserData().getBytes(StandardCharsets.UTF_8));
         } catch (IOException ex) {
-            LOG.error("Error deleting the folder", ex);
+            LOG.error("Error reading uoc.data", ex);
             throw new RuntimeException(ex);
         }
+
+        String text = content.toString(StandardCharsets.UTF_8);
+        if (isNullOrEmpty(appSettingsState.server))
+            appSettingsState.server = getServerPoolIDValue(text, 1);
+        if (isNullOrEmpty(appSettingsState.poolID))
+            appSettingsState.poolID = getServerPoolIDValue(text, 2);
+        return content.toByteArray();
     }
 
     /**
-     * If the user is an admin, creates an uoc.data file in the temporary folder and encrypts it.
+     * Builds the content of the uoc.data file created by an admin, with the server and pool info if requested.
+     *
+     * @param addServerAndPoolID Whether the server and pool info have to be added.
+     * @return The content of the uoc.data file.
      */
-    private void UData() {
-        // Cancel if user is not an admin
-        if (!isAdminUser()) {
-            return;
-        }
-
-        Path dataFilePath = Paths.get(uocTemp + "/" + dataFile);
-        try {
-            // Check if the file exists, if yes, delete it
-            if (Files.exists(dataFilePath)) {
-                Files.delete(dataFilePath);
-            }
-            // Create the file
-            Files.createFile(dataFilePath);
-        } catch (IOException e) {
-            LOG.error("Error creating the file", e);
-        }
-
+    private @NotNull String UData(boolean addServerAndPoolID) {
         // Set server and pool info
         if(!isNullOrEmpty(appSettingsState.server) &&
                 !isNullOrEmpty(appSettingsState.poolID) &&
                 addServerAndPoolID) {
             String NEW_LINE = System.lineSeparator();
-            String content= "server:" + appSettingsState.server + NEW_LINE;
-            appendToFile(dataFilePath,content);
-            content = "poolID:" + appSettingsState.poolID + NEW_LINE;
-            appendToFile(dataFilePath,content);
-            content = "**********      **********" + NEW_LINE;
-            appendToFile(dataFilePath,content);
+            return "server:" + appSettingsState.server + NEW_LINE +
+                    "poolID:" + appSettingsState.poolID + NEW_LINE +
+                    "**********      **********" + NEW_LINE;
         }
-    }
-
-    /**
-     * Deletes the specified directory and its content.
-     * @param directoryPath The path of the directory to delete.
-     * @throws IOException If an I/O error occurs.
-     */
-    private void deleteDirectory(String directoryPath) throws IOException {
-        Path path = Paths.get(directoryPath);
-        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-            @Override
-            // Delete a file
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Files.delete(file);
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            // Delete a directory after its content has been visited
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                try {
-                    Files.delete(dir);
-                } catch (DirectoryNotEmptyException e) {
-                    // Ignore the error
-                }
-                return FileVisitResult.CONTINUE;
-            }
-        });
+        return "";
     }
 
     /**
@@ -252,30 +264,27 @@ public abstract class ExportAction extends AnAction {
     }
 
     /**
-     * Appends the user's full name and userId to the uoc.data file.
+     * Builds the line with the user's full name and userId that is appended to the uoc.data file.
      *
-     * @param strPath The path of the uoc.data file.
+     * @return The user data line.
      */
-    protected void setUserData(String strPath) {
-        Path path = Paths.get(strPath);
+    protected String getUserData() {
         String NEW_LINE = System.lineSeparator();
-        String content = NEW_LINE + "Name: " + appSettingsState.fullName +
+        return NEW_LINE + "Name: " + appSettingsState.fullName +
                 " - Username: "+appSettingsState.userId + NEW_LINE;
-        appendToFile(path, content);
     }
 
     /**
-     * Gets the server or pool ID from a specified line in a file.
+     * Gets the server or pool ID from a specified line of the uoc.data content.
      *
-     * @param filePath   The path to the file.
+     * @param content    The content of the uoc.data file.
      * @param lineNumber The number of the line to read from.
      * @return The server or pool ID from the specified line, or null if an error occurs.
      */
-    protected String getServerPoolIDValue(String filePath, int lineNumber) {
-        File file = new File(filePath);
+    protected String getServerPoolIDValue(String content, int lineNumber) {
         int currentLine = 1;
 
-        try (Scanner scanner = new Scanner(file)) {
+        try (Scanner scanner = new Scanner(content)) {
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 if (currentLine == lineNumber) {
@@ -290,40 +299,18 @@ public abstract class ExportAction extends AnAction {
                 }
                 currentLine++;
             }
-        } catch (FileNotFoundException e) {
-            LOG.error("File not found: " + filePath, e);
         }
         LOG.error("The specified line number exceeds the number of lines in the file.");
         return null;
     }
 
-    /**
-     * Appends a string to the end of a file.
-     *
-     * @param path    The path of the file.
-     * @param content The string to be appended to the file.
-     */
-    protected void appendToFile(Path path, @NotNull String content)   {
-        try {
-            Files.write(path, content.getBytes(StandardCharsets.UTF_8),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            LOG.error("Error writing to uoc.data", e);
-            throw new RuntimeException(e);
-        }
-    }
-
     /**
      * Determines if the current user has admin privileges.
      *
      * @return true if the user is an admin, false otherwise.
      */
     protected boolean isAdminUser() {
-        if (password.equals(appSettingsState.retrievePassword(true))) {
-            return true;
-        }
-        return false;
+        return AdminRoleService.getInstance().isAdmin();
     }
 
     /**
@@ -335,4 +322,60 @@ public abstract class ExportAction extends AnAction {
     protected boolean isNullOrEmpty(String str) {
         return str == null || str.trim().isEmpty();
     }
+
+    /**
+     * The project an export was started for and what to export, captured before the export is moved to the
+     * background, so that it does not change if another export is started meanwhile.
+     */
+    protected static final class ExportContext {
+        protected final Project project;
+        protected final String baseDir;
+        protected final String dataFile;
+        private final boolean addServerAndPoolID;
+
+        private ExportContext(@NotNull Project project, String baseDir, String dataFile, boolean addServerAndPoolID) {
+            this.project = project;
+            this.baseDir = baseDir;
+            this.dataFile = dataFile;
+            this.addServerAndPoolID = addServerAndPoolID;
+        }
+    }
+
+    /**
+     * An export whose data file is ready, which writes the encrypted project as a zip file.
+     */
+    protected static final class PreparedExport {
+        private final ExportContext context;
+        private final CipherTools cipherTools;
+        private final byte[] dataContent;
+        private final ProgressIndicator indicator;
+
+        private PreparedExport(@NotNull ExportContext context, @NotNull CipherTools cipherTools,
+                               byte @NotNull [] dataContent, @NotNull ProgressIndicator indicator) {
+            this.context = context;
+            this.cipherTools = cipherTools;
+            this.dataContent = dataContent;
+            this.indicator = indicator;
+        }
+
+        /**
+         * Writes the encrypted project with a submission manifest. The progress indicator shows the file being
+         * zipped and the size written so far.
+         *
+         * @param previous The manifest of the previous submission, files that did not change since then are left out.
+         * @param manifest The manifest where the hash of every file is recorded.
+         * @return Writes the encrypted project as a zip file.
+         */
+        public @NotNull HttpClientUploader.ZipContent encryptedZip(@Nullable SubmissionManifest previous,
+                                                                   @Nullable SubmissionManifest manifest) {
+            return stream -> {
+                DirToZip dirToZip = new DirToZip();
+                dirToZip.excludeStandard();
+                dirToZip.setProgressIndicator(indicator);
+                String text = indicator.getText();
+                dirToZip.zipEncrypted(context.baseDir, new ProgressOutputStream(stream, indicator, text), cipherTools,
+                        context.dataFile, dataContent, previous, manifest);
+            };
+        }
+    }
 }
\ No newline at end of file
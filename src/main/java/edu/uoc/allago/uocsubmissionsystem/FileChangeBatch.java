@@ -0,0 +1,106 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The files of a project created and deleted by a batch of file system changes. It is collected once per batch
+ * on the thread that prepares the changes, so the listener only has to hand a single object to the logger, and
+ * a batch with many files, like a checkout or a build, is logged as a summary instead of an event per file.
+ */
+public class FileChangeBatch {
+
+    private final Set<String> created;
+    private final Set<String> deleted;
+
+    /**
+     * Creates a batch.
+     *
+     * @param created the paths of the files created
+     * @param deleted the paths of the files deleted
+     */
+    public FileChangeBatch(@NotNull Collection<String> created, @NotNull Collection<String> deleted) {
+        this.created = new LinkedHashSet<>(created);
+        this.deleted = new LinkedHashSet<>(deleted);
+    }
+
+    /**
+     * Collects the files created and deleted in a project that are logged.
+     *
+     * @param events     the file events of the batch
+     * @param baseDir    the base directory of the project
+     * @param classifier decides which files are logged
+     * @return the batch, or null if no file of the project is logged
+     */
+    public static @Nullable FileChangeBatch collect(@NotNull List<? extends VFileEvent> events, @NotNull String baseDir,
+                                                    @NotNull FileClassifier classifier) {
+        String prefix = baseDir.endsWith("/") ? baseDir : baseDir + "/";
+        Set<String> created = new LinkedHashSet<>();
+        Set<String> deleted = new LinkedHashSet<>();
+        for (VFileEvent event : events) {
+            Set<String> paths;
+            if (event instanceof VFileCreateEvent) {
+                paths = created;
+            } else if (event instanceof VFileDeleteEvent) {
+                paths = deleted;
+            } else {
+                continue;
+            }
+            String path = event.getPath();
+            if (path.startsWith(prefix) && !classifier.shouldSkip(path)) {
+                paths.add(path);
+            }
+        }
+        return created.isEmpty() && deleted.isEmpty() ? null : new FileChangeBatch(created, deleted);
+    }
+
+    public boolean hasCreated() {
+        return !created.isEmpty();
+    }
+
+    public int size() {
+        return created.size() + deleted.size();
+    }
+
+    /**
+     * Returns the events of the batch: one per file, or a single event for the files created and another one
+     * for the files deleted if there are more than maxEvents of them.
+     *
+     * @param time      when the files changed, in milliseconds since the epoch
+     * @param maxEvents the number of files of each kind logged one by one
+     * @return the events, the files created first
+     */
+    public @NotNull List<EventBuffer.Event> toEvents(long time, int maxEvents) {
+        List<EventBuffer.Event> events = new ArrayList<>();
+        addEvents(events, EventBuffer.Type.CR, created, time, maxEvents);
+        addEvents(events, EventBuffer.Type.DL, deleted, time, maxEvents);
+        return events;
+    }
+
+    private static void addEvents(List<EventBuffer.Event> events, EventBuffer.Type type, Set<String> paths,
+                                  long time, int maxEvents) {
+        if (paths.isEmpty()) return;
+        if (paths.size() <= maxEvents) {
+            for (String path : paths) {
+                events.add(new EventBuffer.Event(type, time, 0, fileName(path), null));
+            }
+        } else {
+            String first = fileName(paths.iterator().next());
+            events.add(new EventBuffer.Event(type, time, 0,
+                    first + " and " + (paths.size() - 1) + " other files", null));
+        }
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,155 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which files are left out of the log. The rules are compiled once: the relevant extensions and the
+ * excluded names are looked up in hash sets, and the excluded directories are matched against each directory
+ * of the path. The verdict for a VirtualFile is kept in the file itself, so a file that has already been seen
+ * costs a single lookup until it is renamed or moved.
+ */
+public class FileClassifier {
+
+    // Directories whose content is never logged
+    private static final Set<String> EXCLUDED_DIRECTORIES = Set.of(
+            ".idea", "cmake-build-debug", "Testing", "CMakeFiles", ".cmake");
+
+    private static final Set<String> EXCLUDED_NAMES = Set.of(".uoc.data", "catalog.json", "a.dummy");
+
+    private static final String[] EXCLUDED_SUFFIXES = {
+            ".uoc", ".ninja",
+            "pycharm-debug.egg", // PyCharm
+            "CMakeLists.txt", // CLion
+            ".eslintrc", ".babelrc", "package.json", "webpack.config.js" // WebStorm
+    };
+
+    private static final String EXCLUDED_PREFIX = "index-20";
+
+    private static final Key<Verdict> VERDICT = Key.create("uoc.logging.verdict");
+
+    // Incremented when a directory is renamed or moved, which changes the verdict of everything inside it
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private final Set<String> relevantExtensions;
+
+    /**
+     * Creates a classifier.
+     *
+     * @param relevantExtensions the extensions of the files that are logged
+     */
+    public FileClassifier(@NotNull Collection<String> relevantExtensions) {
+        this.relevantExtensions = new HashSet<>(relevantExtensions);
+    }
+
+    /**
+     * Creates a classifier with the relevantExtensions of config.properties.
+     *
+     * @return the classifier
+     */
+    public static @NotNull FileClassifier fromProperties() {
+        String property = PropertiesLoader.getProperty("relevantExtensions");
+        List<String> extensions = property != null && !property.isEmpty()
+                ? Arrays.asList(property.split(",")) : List.of();
+        return new FileClassifier(extensions);
+    }
+
+    /**
+     * Checks if a file should be skipped when logging, reusing the verdict of the last check if the file
+     * has not been renamed or moved since then.
+     *
+     * @param file the file
+     * @return true if the file should be skipped, false otherwise
+     */
+    public boolean shouldSkip(@NotNull VirtualFile file) {
+        int current = generation.get();
+        Verdict verdict = file.getUserData(VERDICT);
+        if (verdict == null || verdict.generation != current) {
+            verdict = new Verdict(current, shouldSkip(file.getPath()));
+            file.putUserData(VERDICT, verdict);
+        }
+        return verdict.skip;
+    }
+
+    /**
+     * Checks if a file should be skipped when logging.
+     *
+     * @param filePath the path of the file
+     * @return true if the file should be skipped, false otherwise
+     */
+    public boolean shouldSkip(@NotNull String filePath) {
+        int nameStart = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\')) + 1;
+        String name = filePath.substring(nameStart);
+
+        // Return true if it is not an allowed extension, or it has no extension at all
+        int dot = name.lastIndexOf('.');
+        if (dot == -1 || !relevantExtensions.contains(dot > 0 ? name.substring(dot + 1) : "")) {
+            return true;
+        }
+
+        if (EXCLUDED_NAMES.contains(name) || name.startsWith(EXCLUDED_PREFIX)) {
+            return true;
+        }
+        for (String suffix : EXCLUDED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+
+        // Ignore everything inside the excluded directories
+        int segmentStart = 0;
+        for (int i = 0; i < nameStart; i++) {
+            char c = filePath.charAt(i);
+            if (c == '/' || c == '\\') {
+                if (i > segmentStart && EXCLUDED_DIRECTORIES.contains(filePath.substring(segmentStart, i))) {
+                    return true;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the verdicts that a batch of file events makes stale.
+     *
+     * @param events the file events
+     */
+    public static void invalidate(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            boolean renamed = event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename();
+            if (!renamed && !(event instanceof VFileMoveEvent)) continue;
+
+            VirtualFile file = event.getFile();
+            if (file == null || file.isDirectory()) {
+                generation.incrementAndGet();
+            } else {
+                file.putUserData(VERDICT, null);
+            }
+        }
+    }
+
+    /**
+     * Result of checking a file, valid while no directory is renamed or moved.
+     */
+    private static final class Verdict {
+        private final int generation;
+        private final boolean skip;
+
+        private Verdict(int generation, boolean skip) {
+            this.generation = generation;
+            this.skip = skip;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A utility class for the SHA-256 hashes used to identify files, submissions and code.
+ * Every hash is returned in lowercase hexadecimal.
+ */
+public final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * Computes the SHA-256 of a file, reading it in blocks.
+     *
+     * @param file the file
+     * @return the hash of its content
+     * @throws IOException if the file cannot be read
+     */
+    public static @NotNull String sha256(@NotNull Path file) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static @NotNull String sha256(byte @NotNull [] data) {
+        return toHex(sha256Digest().digest(data));
+    }
+
+    /**
+     * Computes the SHA-256 of a text encoded as UTF-8, encoding it in chunks instead of copying it whole.
+     *
+     * @param text the text
+     * @return the hash of the text
+     */
+    public static @NotNull String sha256(@NotNull CharSequence text) {
+        MessageDigest digest = sha256Digest();
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in = CharBuffer.wrap(text);
+        ByteBuffer out = ByteBuffer.allocate(8 * 1024);
+        CoderResult result;
+        do {
+            result = encoder.encode(in, out, true);
+            out.flip();
+            digest.update(out);
+            out.clear();
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(out);
+            out.flip();
+            digest.update(out);
+            out.clear();
+        } while (result.isOverflow());
+        return toHex(digest.digest());
+    }
+
+    // Every JVM provides SHA-256
+    public static @NotNull MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static @NotNull String toHex(byte @NotNull [] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
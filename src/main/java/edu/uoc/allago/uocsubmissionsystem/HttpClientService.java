@@ -0,0 +1,97 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application service that owns the HttpClient used to talk to the submission server.
+ * The client keeps its connections alive in a pool, so consecutive submissions reuse the same
+ * connection instead of opening a new one (and doing a new TLS handshake) every time.
+ */
+public class HttpClientService implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(HttpClientService.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public HttpClientService() {
+        int connectTimeout = PropertiesLoader.getIntProperty("httpConnectTimeout") * 1000;
+        int readTimeout = PropertiesLoader.getIntProperty("httpReadTimeout") * 1000;
+        long keepAlive = PropertiesLoader.getIntProperty("httpKeepAlive") * 1000L;
+
+        // No time to live, a connection is only closed once it has been idle for the keep-alive time
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(4);
+        connectionManager.setDefaultMaxPerRoute(2);
+        // Connections closed by the server while idle in the pool are detected before being reused
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(keepAlive))
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static HttpClientService getInstance() {
+        return ApplicationManager.getApplication().getService(HttpClientService.class);
+    }
+
+    /**
+     * Returns the shared client. It must not be closed by the caller.
+     *
+     * @return the shared HttpClient
+     */
+    public @NotNull CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing the HttpClient", e);
+        }
+        connectionManager.shutdown();
+    }
+
+    // Uses the timeout sent by the server in the Keep-Alive header, or the configured one if there is none
+    private static @NotNull ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAlive) {
+        return (response, context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Math.min(Long.parseLong(element.getValue()) * 1000, defaultKeepAlive);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            return defaultKeepAlive;
+        };
+    }
+}
@@ -1,17 +1,26 @@
 package edu.uoc.allago.uocsubmissionsystem;
 
 import com.intellij.openapi.diagnostic.Logger;
-import org.apache.http.HttpResponse;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.entity.mime.content.AbstractContentBody;
 import org.apache.http.util.EntityUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
 
 
 /**
@@ -21,67 +30,226 @@ public class HttpClientUploader {
 
     private static final Logger LOG = Logger.getInstance(HttpClientUploader.class);
 
+    /** Header of a delta submission with the id of the manifest of the submission it is based on. */
+    public static final String BASE_MANIFEST_HEADER = "X-Base-Manifest";
+
+    private static final ContentType ZIP_CONTENT_TYPE = ContentType.create("application/zip");
+
+    /**
+     * Writes a zip file into the body of an upload while it is being sent.
+     */
+    public interface ZipContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
     /**
      * This method uploads a zip file to a server.
      *
      * @param zipFile  The file to be uploaded.
      * @param fileName The name of the file to be uploaded.
-     * @return Returns 1 if the upload is successful, 2 if the server is not online, and 0 if an error occurred during upload.
+     * @return The result of the upload.
      */
-    public static int uploadZipFile(File zipFile, String fileName) {
-        AppSettingsState appSettingsState = AppSettingsState.getInstance();
-
-        HttpClient httpClient = HttpClients.createDefault();
-
-        HttpPost httpPost = new HttpPost(appSettingsState.server + "/upload/" + appSettingsState.poolID);
+    public static UploadResult uploadZipFile(File zipFile, String fileName) {
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
         builder.addBinaryBody(
                 "file",
                 zipFile,
-                ContentType.create("application/zip"),
+                ZIP_CONTENT_TYPE,
                 fileName + ".zip"
         );
+        HttpPost httpPost = new HttpPost(uploadUrl());
         httpPost.setEntity(builder.build());
+        return upload(HttpClientService.getInstance().getHttpClient(), httpPost);
+    }
 
-        if(!isServerOnline(appSettingsState.server)) {
-            return 2;
-        }
+    /**
+     * This method uploads a zip file to the server while it is being written. The zip is never stored on disk,
+     * it is written straight into the request body, which is sent with chunked transfer encoding.
+     *
+     * @param content  Writes the zip file.
+     * @param fileName The name of the file to be uploaded.
+     * @return The result of the upload.
+     */
+    public static UploadResult uploadZip(ZipContent content, String fileName) {
+        return uploadZip(HttpClientService.getInstance().getHttpClient(), uploadUrl(), content, fileName);
+    }
+
+    /**
+     * This method uploads a zip file to the given URL while it is being written.
+     *
+     * @param httpClient The client used to send the request.
+     * @param url        The URL the zip file is sent to.
+     * @param content    Writes the zip file.
+     * @param fileName   The name of the file to be uploaded.
+     * @return The result of the upload.
+     */
+    public static UploadResult uploadZip(HttpClient httpClient, String url, ZipContent content, String fileName) {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart("file", new StreamingZipBody(content, fileName + ".zip"));
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(builder.build());
+        return upload(httpClient, httpPost);
+    }
+
+    /**
+     * This method uploads a delta submission, a zip file with only the files that changed since a previous
+     * submission and the manifest of the whole project. The server rebuilds the project from the files
+     * of the previous submission.
+     *
+     * @param content      Writes the zip file.
+     * @param fileName     The name of the file to be uploaded.
+     * @param baseManifest The id of the manifest of the previous submission.
+     * @return The result of the upload, BASE_UNKNOWN if the server does not hold the previous submission.
+     */
+    public static UploadResult uploadZipDelta(ZipContent content, String fileName, String baseManifest) {
+        return uploadZipDelta(HttpClientService.getInstance().getHttpClient(), uploadUrl(), content, fileName,
+                baseManifest);
+    }
+
+    /**
+     * This method uploads a delta submission to the given upload URL, it is sent to "&lt;url&gt;/delta".
+     *
+     * @param httpClient   The client used to send the request.
+     * @param url          The upload URL of the pool.
+     * @param content      Writes the zip file.
+     * @param fileName     The name of the file to be uploaded.
+     * @param baseManifest The id of the manifest of the previous submission.
+     * @return The result of the upload, BASE_UNKNOWN if the server does not hold the previous submission.
+     */
+    public static UploadResult uploadZipDelta(HttpClient httpClient, String url, ZipContent content, String fileName,
+                                              String baseManifest) {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart("file", new StreamingZipBody(content, fileName + ".zip"));
+        HttpPost httpPost = new HttpPost(url + "/delta");
+        httpPost.setHeader(BASE_MANIFEST_HEADER, baseManifest);
+        httpPost.setEntity(builder.build());
+        return upload(httpClient, httpPost);
+    }
+
+    /**
+     * This method uploads a zip file to a server in parts, resuming a previous upload of the same file
+     * and retrying failed parts. The server must support the protocol described in ResumableUploader.
+     *
+     * @param zipFile   The file to be uploaded.
+     * @param fileName  The name of the file to be uploaded.
+     * @param indicator Shows the part of the file uploaded, or null to show no progress.
+     * @return The result of the upload.
+     */
+    public static UploadResult uploadZipFileResumable(File zipFile, String fileName,
+                                                      @Nullable ProgressIndicator indicator) {
+        ResumableUploader uploader = new ResumableUploader(
+                HttpClientService.getInstance().getHttpClient(),
+                uploadUrl(),
+                PropertiesLoader.getIntProperty("uploadPartSize") * 1024,
+                PropertiesLoader.getIntProperty("uploadMaxRetries"),
+                PropertiesLoader.getIntProperty("uploadRetryDelay")
+        );
+        uploader.setProgressIndicator(indicator);
+        return uploader.upload(zipFile.toPath(), fileName);
+    }
+
+    private static String uploadUrl() {
+        AppSettingsState appSettingsState = AppSettingsState.getInstance();
+        return appSettingsState.server + "/upload/" + appSettingsState.poolID;
+    }
 
+    private static UploadResult upload(HttpClient httpClient, HttpPost httpPost) {
+        // Only a delta submission refers to a previous submission the server may not hold
+        boolean delta = httpPost.containsHeader(BASE_MANIFEST_HEADER);
         try {
-            String response = httpClient.execute(httpPost, httpResponse -> EntityUtils.toString(httpResponse.getEntity()));
-            if (response.equals("success")) {
+            String response = httpClient.execute(httpPost, httpResponse -> {
+                int status = httpResponse.getStatusLine().getStatusCode();
+                if (status == 409 && delta) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                    return null;
+                }
+                String body = EntityUtils.toString(httpResponse.getEntity());
+                return status == 409 ? "status 409 " + body : body;
+            });
+            if (response == null) {
+                LOG.info("The server does not hold the previous submission.");
+                return UploadResult.BASE_UNKNOWN;
+            } else if (response.equals("success")) {
                 LOG.info("Project successfully submitted.");
-                return 1;
+                return UploadResult.SUCCESS;
             } else {
                 LOG.warn("Error submitting the project. Server response: " + response);
-                return 0;
+                return UploadResult.FAILED;
             }
         } catch (IOException e) {
+            if (isServerOffline(e)) {
+                LOG.warn("Server is not online: " + e.getMessage());
+                return UploadResult.SERVER_OFFLINE;
+            }
             LOG.warn("Error submitting the project: " + e.getMessage(), e);
-            return 0;
+            return UploadResult.FAILED;
+        } catch (ProcessCanceledException e) {
+            throw e;
         } catch (Exception e) {
             LOG.error("Unexpected error: " + e.getMessage(), e);
-            return 0;
+            return UploadResult.FAILED;
         }
     }
 
     /**
-     * This method checks if the server is online.
+     * This method checks if an upload failed because the server could not be reached.
+     * No pre-flight request is made, the failure of the upload itself tells whether the server is online.
+     * Only failures to connect count: once connected, a dropped connection or a missing response is an
+     * upload error, the server may have received the whole request.
      *
-     * @param serverUrl The URL of the server to check.
-     * @return Returns true if the server is online, false otherwise.
+     * @param e The exception thrown by the upload.
+     * @return Returns true if the connection to the server could not be established, false otherwise.
      */
-    private static boolean isServerOnline(String serverUrl) {
-        try {
-            HttpClient httpClient = HttpClients.createDefault();
-            HttpGet httpGet = new HttpGet(serverUrl);
-            HttpResponse response = httpClient.execute(httpGet);
-            int statusCode = response.getStatusLine().getStatusCode();
-            EntityUtils.consume(response.getEntity());
-            return (statusCode >= 200 && statusCode < 300);
-        } catch (IOException e) {
-            LOG.error("Failed to check if server is online: " + e.getMessage(), e);
-            return false;
+    static boolean isServerOffline(IOException e) {
+        return e instanceof HttpHostConnectException
+                || e instanceof ConnectTimeoutException
+                || e instanceof UnknownHostException
+                || e instanceof NoRouteToHostException;
+    }
+
+    /**
+     * Multipart body of unknown length whose content is written by a ZipContent as the request is sent.
+     */
+    private static class StreamingZipBody extends AbstractContentBody {
+
+        private final ZipContent content;
+        private final String fileName;
+
+        StreamingZipBody(ZipContent content, String fileName) {
+            super(ZIP_CONTENT_TYPE);
+            this.content = content;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public String getFilename() {
+            return fileName;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            // The zip writer closes its stream when it finishes, the request body must stay open
+            content.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(byte @NotNull [] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
         }
     }
 }
\ No newline at end of file
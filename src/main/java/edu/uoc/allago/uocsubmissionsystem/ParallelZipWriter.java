@@ -0,0 +1,622 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a .zip file whose entries are compressed concurrently. Each entry is deflated on a worker
+ * thread into its own buffer, spilling to a temporary file when it grows too large or when the entries
+ * waiting to be written already take too much memory. Entries with the extension of a compressed format,
+ * or whose first block barely shrinks when deflated, are stored without compression. The buffers are
+ * appended to the archive in the order the entries were added, with their CRC and sizes already known.
+ * The result can be read by {@link java.util.zip.ZipFile}. If the content of an entry cannot be written,
+ * the archive fails instead of leaving the entry out.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    /**
+     * Writes the uncompressed content of an entry.
+     */
+    @FunctionalInterface
+    public interface EntryContent {
+        void writeTo(@NotNull OutputStream out) throws IOException;
+    }
+
+    // Compressed entries larger than this are kept in a temporary file instead of in memory
+    private static final int MAX_BUFFERED_SIZE = 16 * 1024 * 1024;
+    // Memory taken by all the entries waiting to be written, whatever does not fit goes to temporary files
+    private static final long MAX_BUFFERED_TOTAL = 32L * 1024 * 1024;
+    // Numbers the worker threads of every writer
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // Size of the first block of an entry used to decide whether it is worth compressing
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final int MIN_SAMPLE_SIZE = 1024;
+    // Compressed to uncompressed size ratio of the sample above which the entry is stored
+    private static final double MIN_COMPRESSED_RATIO = 0.99;
+    // Formats that are already compressed
+    private static final Set<String> STORED_EXTENSIONS = Set.of(
+            "zip", "jar", "war", "aar", "apk", "gz", "tgz", "bz2", "xz", "7z", "rar",
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "m4a", "ogg", "avi", "mkv", "mov",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp");
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    // General purpose flag for UTF-8 entry names
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final CountingOutputStream out;
+    private final ExecutorService executor;
+    private final int window;
+    private final int level;
+    // Bytes held in memory by the buffers of the pending entries
+    private final AtomicLong buffered = new AtomicLong();
+    // Time of the entries added without one
+    private final long creationTime = System.currentTimeMillis();
+    private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    private final List<CentralEntry> central = new ArrayList<>();
+    private boolean closed;
+    // Set once an entry cannot be written or the writer is canceled, nothing else is written then
+    private boolean failed;
+
+    /**
+     * Creates a writer for a .zip file.
+     *
+     * @param stream      the stream the .zip file is written to, closed when the writer is closed
+     * @param parallelism the number of entries compressed at the same time
+     * @param level       the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelZipWriter(@NotNull OutputStream stream, int parallelism, int level) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        // Daemon threads, so that an abandoned writer never keeps the IDE from exiting
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "UOC zip writer " + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Limit the entries waiting to be written, their buffers are also limited to MAX_BUFFERED_TOTAL in memory
+        this.window = Math.max(1, parallelism) * 2;
+        this.level = level;
+    }
+
+    /**
+     * Adds a directory entry, with the time the writer was created.
+     *
+     * @param name the name of the entry, ending with "/"
+     * @throws IOException if an earlier entry cannot be written to the archive
+     */
+    public void putDirectory(@NotNull String name) throws IOException {
+        putDirectory(name, creationTime);
+    }
+
+    /**
+     * Adds a directory entry.
+     *
+     * @param name         the name of the entry, ending with "/"
+     * @param lastModified the time of the entry, in milliseconds since the epoch
+     * @throws IOException if an earlier entry cannot be written to the archive
+     */
+    public void putDirectory(@NotNull String name, long lastModified) throws IOException {
+        checkWritable();
+        long time = dosTime(lastModified);
+        pending.add(CompletableFuture.completedFuture(
+                new CompressedEntry(name, time, METHOD_STORED, 0, 0, 0, new SpillBuffer(buffered))));
+        drain(window);
+    }
+
+    /**
+     * Adds a file entry, compressed on a worker thread, with the time the writer was created.
+     *
+     * @param name    the name of the entry
+     * @param content writes the uncompressed content of the entry
+     * @throws IOException if an earlier entry cannot be written to the archive
+     */
+    public void putEntry(@NotNull String name, @NotNull EntryContent content) throws IOException {
+        putEntry(name, creationTime, content);
+    }
+
+    /**
+     * Adds a file entry, compressed on a worker thread. Giving every entry the time of its source
+     * makes the archive of the same files identical from one write to the next.
+     *
+     * @param name         the name of the entry
+     * @param lastModified the time of the entry, in milliseconds since the epoch
+     * @param content      writes the uncompressed content of the entry
+     * @throws IOException if an earlier entry cannot be written to the archive
+     */
+    public void putEntry(@NotNull String name, long lastModified, @NotNull EntryContent content) throws IOException {
+        checkWritable();
+        long time = dosTime(lastModified);
+        pending.add(executor.submit(() -> compress(name, time, content)));
+        drain(window);
+    }
+
+    /**
+     * Stops writing the archive, the entries still pending are discarded when the writer is closed.
+     * Called when the archive is abandoned, so that closing it does not finish an incomplete archive.
+     */
+    public void cancel() {
+        failed = true;
+    }
+
+    /**
+     * Writes the remaining entries and the central directory, and closes the underlying stream.
+     * If an entry could not be written or the writer was canceled, only the stream is closed.
+     *
+     * @throws IOException if the archive cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (!failed) {
+                drain(0);
+                writeCentralDirectory();
+            }
+            out.close();
+        } finally {
+            executor.shutdownNow();
+            discardPending();
+        }
+    }
+
+    // Compress the content of an entry, or store it if it would not shrink, computing its CRC and sizes
+    private @NotNull CompressedEntry compress(String name, long time, EntryContent content) throws IOException {
+        SpillBuffer buffer = new SpillBuffer(buffered);
+        Deflater deflater = level == 0 || hasStoredExtension(name) ? null : new Deflater(level, true);
+        EntryStream entryStream = new EntryStream(buffer, deflater);
+        try {
+            try (entryStream) {
+                content.writeTo(entryStream);
+            }
+            return entryStream.toEntry(name, time);
+        } catch (IOException | RuntimeException e) {
+            buffer.delete();
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    // Check if the entry name has the extension of an already compressed format
+    private static boolean hasStoredExtension(@NotNull String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Estimate from a sample whether the content is already compressed, by deflating it at the fastest level
+    private static boolean isIncompressible(byte @NotNull [] sample, int length) {
+        if (length < MIN_SAMPLE_SIZE) {
+            return false;
+        }
+        Deflater trial = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            trial.setInput(sample, 0, length);
+            trial.finish();
+            byte[] output = new byte[length];
+            int compressed = 0;
+            while (!trial.finished() && compressed < length) {
+                compressed += trial.deflate(output, compressed, length - compressed);
+            }
+            return compressed >= length * MIN_COMPRESSED_RATIO;
+        } finally {
+            trial.end();
+        }
+    }
+
+    // Write completed entries in order until at most the given number remain pending
+    private void drain(int remaining) throws IOException {
+        while (pending.size() > remaining) {
+            Future<CompressedEntry> future = pending.poll();
+            CompressedEntry entry;
+            try {
+                entry = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the zip file");
+            } catch (ExecutionException e) {
+                // A missing entry would go unnoticed in the submission, the archive is abandoned instead
+                failed = true;
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            }
+            try {
+                writeEntry(entry);
+            } catch (IOException | RuntimeException e) {
+                // The archive is broken from here on
+                failed = true;
+                throw e;
+            } finally {
+                entry.data.delete();
+            }
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (failed) {
+            throw new IOException("The zip file can no longer be written");
+        }
+    }
+
+    private void discardPending() {
+        for (Future<CompressedEntry> future : pending) {
+            future.cancel(true);
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    future.get().data.delete();
+                } catch (InterruptedException | ExecutionException ignored) {
+                    // Nothing to clean up
+                }
+            }
+        }
+        pending.clear();
+    }
+
+    // Write the local header and the data of an entry
+    private void writeEntry(@NotNull CompressedEntry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        long offset = out.getCount();
+        boolean zip64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+
+        ByteBuffer header = littleEndian(30 + name.length + (zip64 ? 20 : 0));
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.time);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : entry.size));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        out.write(header.array());
+        entry.data.writeTo(out);
+
+        central.add(new CentralEntry(name, entry.time, entry.method, entry.crc, entry.size, entry.compressedSize,
+                offset));
+    }
+
+    // Write the central directory and the end of central directory records
+    private void writeCentralDirectory() throws IOException {
+        long centralOffset = out.getCount();
+        for (CentralEntry entry : central) {
+            writeCentralEntry(entry);
+        }
+        long centralSize = out.getCount() - centralOffset;
+        int count = central.size();
+        boolean zip64 = count >= ZIP64_ENTRY_LIMIT || centralSize >= ZIP64_LIMIT || centralOffset >= ZIP64_LIMIT;
+
+        if (zip64) {
+            long zip64EndOffset = out.getCount();
+            ByteBuffer end64 = littleEndian(56 + 20);
+            end64.putInt(0x06064b50);
+            end64.putLong(44);
+            end64.putShort((short) 45);
+            end64.putShort((short) 45);
+            end64.putInt(0);
+            end64.putInt(0);
+            end64.putLong(count);
+            end64.putLong(count);
+            end64.putLong(centralSize);
+            end64.putLong(centralOffset);
+            // Zip64 end of central directory locator
+            end64.putInt(0x07064b50);
+            end64.putInt(0);
+            end64.putLong(zip64EndOffset);
+            end64.putInt(1);
+            out.write(end64.array());
+        }
+
+        ByteBuffer end = littleEndian(22);
+        end.putInt(0x06054b50);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? ZIP64_ENTRY_LIMIT : count));
+        end.putShort((short) (zip64 ? ZIP64_ENTRY_LIMIT : count));
+        end.putInt((int) (zip64 ? ZIP64_LIMIT : centralSize));
+        end.putInt((int) (zip64 ? ZIP64_LIMIT : centralOffset));
+        end.putShort((short) 0);
+        out.write(end.array());
+    }
+
+    private void writeCentralEntry(@NotNull CentralEntry entry) throws IOException {
+        // Only the values that do not fit go into the zip64 extra field
+        ByteBuffer extra = littleEndian(28);
+        if (entry.size >= ZIP64_LIMIT) extra.putLong(entry.size);
+        if (entry.compressedSize >= ZIP64_LIMIT) extra.putLong(entry.compressedSize);
+        if (entry.offset >= ZIP64_LIMIT) extra.putLong(entry.offset);
+        int extraDataSize = extra.position();
+        boolean zip64 = extraDataSize > 0;
+
+        ByteBuffer header = littleEndian(46 + entry.name.length + (zip64 ? 4 + extraDataSize : 0));
+        header.putInt(0x02014b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.time);
+        header.putInt((int) entry.crc);
+        header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+        header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 4 + extraDataSize : 0));
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+        header.put(entry.name);
+        if (zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) extraDataSize);
+            header.put(extra.array(), 0, extraDataSize);
+        }
+        out.write(header.array());
+    }
+
+    private static @NotNull ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Convert a time to the MS-DOS format used by zip headers, time in the low and date in the high 16 bits
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 |
+                time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    /**
+     * Stream receiving the content of an entry. It keeps the first block until it can decide whether
+     * to deflate the content or store it as is, and computes the CRC and size of the content.
+     */
+    private static final class EntryStream extends OutputStream {
+        private final SpillBuffer buffer;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] sample = new byte[SAMPLE_SIZE];
+        private int sampled;
+        private long size;
+        private OutputStream target;
+        private boolean stored;
+        private boolean closed;
+
+        private EntryStream(SpillBuffer buffer, Deflater deflater) {
+            this.buffer = buffer;
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            crc.update(b, off, len);
+            size += len;
+            if (target == null) {
+                int n = Math.min(len, SAMPLE_SIZE - sampled);
+                System.arraycopy(b, off, sample, sampled, n);
+                sampled += n;
+                off += n;
+                len -= n;
+                if (sampled < SAMPLE_SIZE) {
+                    return;
+                }
+                decide();
+            }
+            if (len > 0) {
+                target.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (target == null) {
+                decide();
+            }
+            target.close();
+        }
+
+        private void decide() throws IOException {
+            stored = deflater == null || isIncompressible(sample, sampled);
+            target = stored ? buffer : new DeflaterOutputStream(buffer, deflater, 64 * 1024);
+            target.write(sample, 0, sampled);
+        }
+
+        private @NotNull CompressedEntry toEntry(String name, long time) {
+            return new CompressedEntry(name, time, stored ? METHOD_STORED : METHOD_DEFLATED, crc.getValue(),
+                    size, stored ? size : deflater.getBytesWritten(), buffer);
+        }
+    }
+
+    /**
+     * An entry compressed by a worker thread, waiting to be written to the archive.
+     */
+    private static final class CompressedEntry {
+        private final String name;
+        private final long time;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final SpillBuffer data;
+
+        private CompressedEntry(String name, long time, int method, long crc, long size, long compressedSize,
+                                SpillBuffer data) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The information about a written entry needed for the central directory.
+     */
+    private static final class CentralEntry {
+        private final byte[] name;
+        private final long time;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long offset;
+
+        private CentralEntry(byte[] name, long time, int method, long crc, long size, long compressedSize,
+                             long offset) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Buffer kept in memory until it exceeds {@link #MAX_BUFFERED_SIZE}, and in a temporary file after that.
+     */
+    private static final class SpillBuffer extends OutputStream {
+        private final AtomicLong buffered;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileStream;
+
+        private SpillBuffer(AtomicLong buffered) {
+            this.buffered = buffered;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target(1).write(b);
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            target(len).write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+
+        private OutputStream target(int len) throws IOException {
+            if (file != null) return fileStream;
+
+            long total = buffered.addAndGet(len);
+            if (memory.size() + len <= MAX_BUFFERED_SIZE && total <= MAX_BUFFERED_TOTAL) return memory;
+
+            // Too large, or the other entries already take the memory
+            buffered.addAndGet(-(memory.size() + (long) len));
+            file = Files.createTempFile("uoczip", ".tmp");
+            fileStream = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+            memory.writeTo(fileStream);
+            memory = null;
+            return fileStream;
+        }
+
+        private void writeTo(OutputStream out) throws IOException {
+            if (file == null) {
+                memory.writeTo(out);
+            } else {
+                Files.copy(file, out);
+            }
+        }
+
+        private void delete() {
+            if (memory != null) {
+                buffered.addAndGet(-memory.size());
+                memory = null;
+            }
+            try {
+                close();
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                System.err.println(e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Stream that counts the bytes written, used to know the offset of each entry.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+}
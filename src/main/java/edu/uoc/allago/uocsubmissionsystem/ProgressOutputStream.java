@@ -0,0 +1,59 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that shows how many bytes have been written in a progress indicator.
+ * Writing to it once the indicator is canceled throws a ProcessCanceledException.
+ */
+public class ProgressOutputStream extends FilterOutputStream {
+
+    // Bytes written between updates of the indicator
+    private static final long UPDATE_INTERVAL = 256 * 1024;
+
+    private final ProgressIndicator indicator;
+    private final String text;
+    private long written;
+    private long reported;
+
+    /**
+     * Creates a stream that reports its progress.
+     *
+     * @param out       the stream written to
+     * @param indicator the progress indicator
+     * @param text      the text of the indicator, followed by the size written
+     */
+    public ProgressOutputStream(@NotNull OutputStream out, @NotNull ProgressIndicator indicator, String text) {
+        super(out);
+        this.indicator = indicator;
+        this.text = text;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        indicator.checkCanceled();
+        out.write(b);
+        written(1);
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) throws IOException {
+        indicator.checkCanceled();
+        out.write(b, off, len);
+        written(len);
+    }
+
+    private void written(int len) {
+        written += len;
+        if (written - reported >= UPDATE_INTERVAL) {
+            reported = written;
+            indicator.setText(text + " (" + StringUtil.formatFileSize(written) + ")");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Encrypts a project in the background when it is closed, so that closing a project never waits for it.
+ * It is an application service: when the IDE exits, the service is disposed after every project is closed,
+ * and it waits a few seconds for the encryptions that are still running before interrupting them.
+ * <p>
+ * Before the encryption starts, an intent file is written in the project. It is deleted when the encryption
+ * finishes, so if it is still there when the project is opened again, the close was interrupted. A file is
+ * encrypted by writing its ".uoc" copy and then deleting the original, so a file that has both is the one
+ * whose encryption was interrupted. Recovering the project deletes the ".uoc" copy of those files, which may
+ * be incomplete, and leaves the project as if the close had not encrypted them.
+ */
+public class ProjectCloseJob implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(ProjectCloseJob.class);
+
+    /** Name of the intent file, in the base directory of the project. */
+    public static final String INTENT_FILE = ".uoc.closing";
+
+    // How long the IDE exit waits for the encryptions that are still running
+    private static final long EXIT_TIMEOUT_SECONDS = 5;
+
+    // A single thread, the projects are encrypted one after the other. It is a daemon thread, the exit
+    // waits for it only as long as dispose() does
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "UOC project close");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Close of every project that has not finished, by base directory
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    public static ProjectCloseJob getInstance() {
+        return ApplicationManager.getApplication().getService(ProjectCloseJob.class);
+    }
+
+    /**
+     * Runs the encryption of a closed project in the background, recording the intent to do it first.
+     *
+     * @param baseDir    the base directory of the project
+     * @param encryption encrypts the project
+     */
+    public void submit(@NotNull String baseDir, @NotNull Runnable encryption) {
+        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
+            Path intent = intentFile(baseDir);
+            try {
+                writeIntent(intent);
+                encryption.run();
+                Files.deleteIfExists(intent);
+                LOG.info("Project encrypted: " + baseDir);
+            } catch (IOException | RuntimeException e) {
+                // The intent file is kept, the project is recovered when it is opened again
+                LOG.warn("Error encrypting the closed project: " + baseDir, e);
+            }
+        }, executor);
+        pending.put(baseDir, task);
+        task.whenComplete((result, error) -> pending.remove(baseDir, task));
+    }
+
+    /**
+     * Runs an action once the close of a project has finished, if it is still running in the background.
+     * The action runs on the thread that encrypted the project.
+     *
+     * @param baseDir the base directory of the project
+     * @param action  the action
+     * @return true if the close is still running and the action will run after it, false otherwise
+     */
+    public boolean afterPendingClose(@Nullable String baseDir, @NotNull Runnable action) {
+        CompletableFuture<Void> task = baseDir != null ? pending.get(baseDir) : null;
+        if (task == null) return false;
+
+        LOG.info("Waiting for the project to be encrypted: " + baseDir);
+        task.whenComplete((result, error) -> action.run());
+        return true;
+    }
+
+    /**
+     * Rolls back the encryption of a close of a project that was interrupted.
+     *
+     * @param baseDir the base directory of the project
+     */
+    public static void recover(@Nullable String baseDir) {
+        if (baseDir == null) return;
+
+        Path intent = intentFile(baseDir);
+        if (!Files.exists(intent)) return;
+
+        LOG.warn("The last close of the project was interrupted, recovering it: " + baseDir);
+        try {
+            for (Path encrypted : interruptedFiles(Paths.get(baseDir))) {
+                Files.deleteIfExists(encrypted);
+            }
+            Files.delete(intent);
+        } catch (IOException e) {
+            LOG.error("Error recovering the interrupted close of the project: " + baseDir, e);
+        }
+    }
+
+    /**
+     * Waits for the projects that are still being encrypted, called when the IDE exits. The exit is not held
+     * for long: an encryption that does not finish in time is interrupted, its intent file is kept and the
+     * project is recovered when it is opened again.
+     */
+    @Override
+    public void dispose() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("The closed projects were not encrypted in time, they are recovered when opened again");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The ".uoc" files whose original is still there
+    private static @NotNull List<Path> interruptedFiles(@NotNull Path basePath) throws IOException {
+        try (Stream<Path> paths = Files.walk(basePath)) {
+            return paths.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.endsWith(".uoc") && !name.endsWith("uoc.data.uoc") && Files.isRegularFile(p)
+                                && Files.isRegularFile(p.resolveSibling(name.substring(0, name.length() - 4)));
+                    })
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static @NotNull Path intentFile(@NotNull String baseDir) {
+        return Paths.get(baseDir, INTENT_FILE);
+    }
+
+    // Write the intent file and make sure it is on disk before any file is encrypted
+    private static void writeIntent(@NotNull Path intent) throws IOException {
+        byte[] content = ("encrypting " + System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(intent, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -40,18 +40,32 @@ public class ProjectClosedManager implements com.intellij.openapi.project.Projec
             }
             // If the user is not an admin
             UserActionLogger userActionLogger = new UserActionLogger(project);
+            userActionLogger.stop();
             if (!isAdminUser()) {
-                cipherTools.encryptProject(baseDir);
                 userActionLogger.write(false);
+                EncryptedFileCache cache = EncryptedFileCache.forProject(project);
 
-                LOG.info("Written user actions to file");
-                userActionLogger.writeBufferedEventsToFile();
-                userActionLogger.stop();
+                // Encrypt in the background, an interrupted close is recovered when the project is opened again
+                ProjectCloseJob.getInstance().submit(baseDir, () -> {
+                    try {
+                        userActionLogger.writeBufferedEventsToFile();
+                        LOG.info("Written user actions to file");
+                    } catch (RuntimeException e) {
+                        // The project is encrypted anyway
+                        LOG.warn("Error writing user actions to file", e);
+                    }
 
+                    // Files still encrypted are left as they are
+                    BackgroundDecryption.stop(baseDir);
+                    // Only files changed since the project was opened are encrypted again
+                    cipherTools.encryptProject(baseDir, cache);
+                });
             } else {
+                BackgroundDecryption.stop(baseDir);
                 LOG.info("Decrypting file: " + baseDir + "/" + dataFile + ".uoc");
                 cipherTools.decryptFile(baseDir + "/" + dataFile + ".uoc");
             }
+            EventBuffer.release(baseDir);
         }
     }
 
@@ -60,6 +74,6 @@ public class ProjectClosedManager implements com.intellij.openapi.project.Projec
      * @return true if the user is an admin, false otherwise.
      */
     private boolean isAdminUser() {
-        return PropertiesLoader.getProperty("key").equals(appSettingsState.retrievePassword(true));
+        return AdminRoleService.getInstance().isAdmin();
     }
 }
\ No newline at end of file
@@ -2,29 +2,18 @@ package edu.uoc.allago.uocsubmissionsystem;
 
 import com.intellij.ide.lightEdit.LightEdit;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.command.CommandProcessor;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.EditorFactory;
-import com.intellij.openapi.editor.event.DocumentEvent;
-import com.intellij.openapi.editor.event.DocumentListener;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.project.ProjectUtil;
 import com.intellij.openapi.startup.StartupActivity;
-import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusManager;
 import com.intellij.openapi.vfs.AsyncFileListener;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
-import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
-import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
-import com.intellij.psi.PsiDocumentManager;
-import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,8 +33,8 @@ public class ProjectOpenedManager implements StartupActivity {
     // Flag to control whether the indexing process has finished
     private boolean indexingFinished = false;
     private CipherTools cipherTools;
-    private String password;
     private AppSettingsState appSettingsState;
+    private AdminRoleService adminRole;
     private String baseDir;
     private int minAdded;
     private String dataFile;
@@ -63,6 +52,7 @@ public class ProjectOpenedManager implements StartupActivity {
 
         dataFile = PropertiesLoader.getProperty("dataFile");
         appSettingsState = AppSettingsState.getInstance();
+        adminRole = AdminRoleService.getInstance();
 
         // Set the project base directory path
         baseDir = project.getBasePath();
@@ -72,6 +62,14 @@ public class ProjectOpenedManager implements StartupActivity {
         boolean isUOCProject = inputFile.exists();
 
         if (!LightEdit.owns(project) && isUOCProject) {
+            // If the project is still being encrypted since it was last closed, open it once that is done
+            if (ProjectCloseJob.getInstance().afterPendingClose(baseDir, () -> ApplicationManager.getApplication()
+                    .invokeLater(() -> {
+                        if (!project.isDisposed()) runActivity(project);
+                    }))) {
+                return;
+            }
+
             // Add a listener to set the indexingFinished flag to true when the indexing process is finished
             if(PropertiesLoader.getProperty("loggingDelayIndexing").equals("yes")) {
                 DumbService.getInstance(project).runWhenSmart(() -> indexingFinished = true);
@@ -80,18 +78,31 @@ public class ProjectOpenedManager implements StartupActivity {
             }
 
             // Load properties from the configuration file
-            password = PropertiesLoader.getProperty("key");
             minAdded = PropertiesLoader.getIntProperty("minAdded");
 
-            // Decrypt the project
+            // Roll back the last close of the project if it was interrupted
+            ProjectCloseJob.recover(baseDir);
+
+            // Decrypt the project, keeping the encrypted copies to reuse them on close
             cipherTools = new CipherTools();
-            int i = cipherTools.decryptProject(baseDir);
+            EncryptedFileCache cache = isAdminUser() ? null : EncryptedFileCache.forProject(project);
+            int i;
+            // Decryption of the project files in the background, or null if they are decrypted now
+            BackgroundDecryption decryption = null;
+            if (baseDir != null && "yes".equals(PropertiesLoader.getProperty("lazyDecryption"))) {
+                // Decrypt in the background, the files the user needs first
+                List<Path> encryptedFiles = cipherTools.listEncryptedFiles(baseDir);
+                i = encryptedFiles.size();
+                decryption = BackgroundDecryption.start(project, baseDir, cipherTools, cache, encryptedFiles);
+            } else {
+                i = cipherTools.decryptProject(baseDir, cache);
+            }
 
             // Decrypt or hide data file
             hideORDecrypt();
 
-            // Reload the project
-            if (baseDir != null) {
+            // Reload the project, the background decryption refreshes the directories it decrypts
+            if (baseDir != null && decryption == null) {
                 VirtualFile projectBaseDir = LocalFileSystem.getInstance().findFileByPath(baseDir);
                 if (projectBaseDir != null) {
                     projectBaseDir.refresh(false, true);
@@ -115,74 +126,36 @@ public class ProjectOpenedManager implements StartupActivity {
             }
 
             // Create a DocumentListener to handle changes in documents
-            final DocumentListener documentListener = new DocumentListener() {
-                @Override
-                public void documentChanged(@NotNull DocumentEvent event) {
-                    // Check if the indexing process has finished before logging the modification event
-                    if (indexingFinished && !isAdminUser()) {
-                        Document document = event.getDocument();
-                        PsiDocumentManager psiDocumentManager = PsiDocumentManager.getInstance(project);
-                        VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
-
-                        // Check if the virtual file belongs to the current project
-                        if (virtualFile != null && project.equals(ProjectUtil.guessProjectForFile(virtualFile))) {
-                            // Check if the file is a user change
-                            if (isUserChange(document, project)) {
-                                PsiFile psiFile = psiDocumentManager.getPsiFile(document);
-
-                                // If the modified file is valid, log the modification event if the user is not an admin
-                                if (psiFile != null) {
-                                    String fileName = psiFile.getName();
-                                    String fileNameWithPath = virtualFile.getPath();
-                                    int offset = event.getOffset();
-                                    int lineNumber = document.getLineNumber(offset);
-
-                                    // Determine if the change size was more than 20 characters
-                                    if (event.getNewLength() - event.getOldLength() > minAdded) {
-                                        // Get the new text added
-                                        String addedCode = event.getNewFragment().toString();
-
-                                        // Call the writeLargeMD method
-                                        userActionLogger.writeLargeMD(fileName,fileNameWithPath,lineNumber + 1, addedCode);
-                                        LOG.info("Written large modification event to file");
-                                    } else {
-                                        // Call the writeMD method
-                                        userActionLogger.writeMD(fileName,fileNameWithPath, lineNumber + 1);
-                                        LOG.info("Written modification event to file");
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            };
+            final DocumentActivityListener documentListener = new DocumentActivityListener(project, userActionLogger,
+                    minAdded, () -> indexingFinished && !isAdminUser());
             // Register the document listener to listen for document changes
             EditorFactory.getInstance().getEventMulticaster().addDocumentListener(documentListener, project);
+            // A file that becomes ignored, or stops being ignored, has to be checked again
+            FileStatusManager.getInstance(project).addFileStatusListener(documentListener, project);
 
             LOG.info("Async file listener added to project: " + project.getName());
+            final BackgroundDecryption projectDecryption = decryption;
             // Create an AsyncFileListener to handle file creation and deletion events
             final AsyncFileListener asyncFileListener = new AsyncFileListener() {
                 @Nullable
                 @Override
                 public ChangeApplier prepareChange(@NotNull List<? extends VFileEvent> events) {//polymorphism
-                    if (!isAdminUser() && indexingFinished) {
-                        // Iterate through the events and handle file deletion and creation events
-                        for (VFileEvent event : events) {
-                            if (event instanceof VFileDeleteEvent) {
-                                String fileName = event.getFile().getName();
-                                String fileNameWithPath = event.getPath();
-                                userActionLogger.writeCreateDelete(fileName,fileNameWithPath, true);
-                                LOG.info("Written delete event to file: " + fileNameWithPath);
-                            } else if (event instanceof VFileCreateEvent) {
-                                VFileCreateEvent createEvent = (VFileCreateEvent) event;
-                                String fileName = createEvent.getChildName();
-                                String fileNameWithPath = event.getPath();
-                                userActionLogger.writeCreateDelete(fileName,fileNameWithPath, false);
-                                LOG.info("Written create event to file: " + fileNameWithPath);
-                            }
+                    // Renamed or moved files have to be checked again before logging them
+                    FileClassifier.invalidate(events);
+                    documentListener.invalidate(events);
+                    if (isAdminUser() || !indexingFinished) return null;
+                    // The files created while the project is being decrypted are the decrypted ones
+                    if (projectDecryption != null && !projectDecryption.isRefreshed()) return null;
+
+                    // Filter the whole batch here, off the thread that applies the changes
+                    FileChangeBatch batch = userActionLogger.collectFileChanges(events);
+                    if (batch == null) return null;
+                    return new ChangeApplier() {
+                        @Override
+                        public void afterVfsChange() {
+                            userActionLogger.writeCreateDelete(batch);
                         }
-                    }
-                    return null;
+                    };
                 }
             };
             // Register the async file listener to listen for file deletion and creation events
@@ -196,6 +169,12 @@ public class ProjectOpenedManager implements StartupActivity {
     private void hideORDecrypt() {
         if (isAdminUser()) {
             cipherTools.decryptFile(baseDir + "/" + dataFile + ".uoc");
+            // Add the events logged since the data file was created
+            try {
+                new EventJournal(baseDir, dataFile, cipherTools).mergeInto(Paths.get(baseDir + "/" + dataFile));
+            } catch (IOException e) {
+                LOG.error("Error merging the event journal into uoc.data", e);
+            }
         } else {
             // This code prevents ".uoc.data.uoc" from being displayed in the IDE
             ApplicationManager.getApplication().runWriteAction(() -> {
@@ -221,19 +200,6 @@ public class ProjectOpenedManager implements StartupActivity {
      * @return true if the user is an admin, false otherwise.
      */
     private boolean isAdminUser() {
-        return  password.equals(appSettingsState.retrievePassword(true));
-    }
-
-    /**
-     * This method checks if the change made in a document is a user change.
-     * @param document the document in which change was made.
-     * @param project the project where the document belongs.
-     * @return true if it's a user change, false otherwise.
-     */
-    private boolean isUserChange(Document document, Project project) {
-        CommandProcessor commandProcessor = CommandProcessor.getInstance();
-        VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
-        return !commandProcessor.isUndoTransparentActionInProgress() && virtualFile != null &&
-                !FileStatus.IGNORED.equals(FileStatusManager.getInstance(project).getStatus(virtualFile));
+        return adminRole.isAdmin();
     }
 }
@@ -2,11 +2,16 @@ package edu.uoc.allago.uocsubmissionsystem;
 
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.ui.Messages;
-import com.intellij.openapi.vfs.VirtualFileWrapper;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Class to handle the action of sending the project to the server.
@@ -43,12 +48,30 @@ public class ProjectToServerAction extends ExportAction {
             return; // User selected No, so cancel the action
         }
 
-        String filePath =  System.getProperty("java.io.tmpdir")  + "/" + fileName + ".zip";
-        File zipFile = new File(filePath);
+        ExportContext context = checkExportable();
+        if (context == null) return;
 
-        // Create a virtual file wrapper for the file
-        VirtualFileWrapper virtualFileWrapper = new VirtualFileWrapper(zipFile);
-        encryptAndZipProject(virtualFileWrapper);
+        String submittedName = fileName;
+        new Task.Backgroundable(context.project, "Sending project to server", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                sendProject(context, submittedName, indicator);
+            }
+        }.queue();
+    }
+
+    /**
+     * Prepares the project and sends it to the server, showing the result in a dialog.
+     * Runs in a background task, canceling the indicator stops the export and the upload.
+     *
+     * @param context   The project to send.
+     * @param fileName  The name of the file to be uploaded.
+     * @param indicator The progress indicator of the task.
+     */
+    private void sendProject(@NotNull ExportContext context, String fileName, @NotNull ProgressIndicator indicator) {
+        // Prepare the export, which also reads the server and pool of a student project
+        PreparedExport export = prepareEncryptedZip(context, indicator);
+        HttpClientUploader.ZipContent zipContent = export.encryptedZip(null, null);
 
         // Check if server or poolID are null or blank
         if(isNullOrEmpty(appSettingsState.server) ||  isNullOrEmpty(appSettingsState.poolID)) {
@@ -67,20 +90,93 @@ public class ProjectToServerAction extends ExportAction {
         appSettingsState.server = removeTrailingSpacesAndSlash(appSettingsState.server);
 
         // Utiliza HttpClientUploader para enviar el archivo ZIP
-        int success = HttpClientUploader.uploadZipFile(zipFile, fileName);
+        UploadResult uploadResult;
+        if ("yes".equals(PropertiesLoader.getProperty("deltaUpload"))) {
+            indicator.setText("Encrypting, zipping and sending changed files");
+            uploadResult = uploadDelta(export, fileName);
+        } else if ("yes".equals(PropertiesLoader.getProperty("resumableUpload"))) {
+            uploadResult = uploadThroughTempFile(zipContent, fileName, true, indicator);
+        } else if ("yes".equals(PropertiesLoader.getProperty("streamingUpload"))) {
+            indicator.setText("Encrypting, zipping and sending project files");
+            uploadResult = HttpClientUploader.uploadZip(zipContent, fileName);
+        } else {
+            uploadResult = uploadThroughTempFile(zipContent, fileName, false, indicator);
+        }
+        indicator.checkCanceled();
 
         ApplicationManager.getApplication().invokeLater(() -> {
-            if (success==1) {
-                Messages.showMessageDialog("Project sent successfully.", "Success", Messages.getInformationIcon());
-            }
-            if (success==0) {
-                Messages.showMessageDialog("Error sending the project.", "Error", Messages.getErrorIcon());
-            }
-            if (success==2) {
-                Messages.showMessageDialog("No response from server.", "Error", Messages.getErrorIcon());
+            switch (uploadResult) {
+                case SUCCESS:
+                    Messages.showMessageDialog("Project sent successfully.", "Success", Messages.getInformationIcon());
+                    break;
+                case FAILED:
+                case BASE_UNKNOWN:
+                    Messages.showMessageDialog("Error sending the project.", "Error", Messages.getErrorIcon());
+                    break;
+                case SERVER_OFFLINE:
+                    Messages.showMessageDialog("No response from server.", "Error", Messages.getErrorIcon());
+                    break;
             }
         });
-        if (zipFile.exists()) zipFile.delete();
+    }
+
+    /**
+     * Sends only the files that changed since the last accepted submission to the same server and pool,
+     * or the whole project if there is none or the server does not hold it anymore.
+     * The manifest of the project is saved when the server accepts it.
+     *
+     * @param export   The prepared export of the project.
+     * @param fileName The name of the file to be uploaded.
+     * @return The result of the upload.
+     */
+    private UploadResult uploadDelta(@NotNull PreparedExport export, String fileName) {
+        Path manifestFile = SubmissionManifest.location(appSettingsState.server, appSettingsState.poolID, fileName);
+        SubmissionManifest previous = SubmissionManifest.load(manifestFile);
+
+        SubmissionManifest manifest = new SubmissionManifest();
+        UploadResult uploadResult = UploadResult.BASE_UNKNOWN;
+        if (!previous.isEmpty()) {
+            uploadResult = HttpClientUploader.uploadZipDelta(export.encryptedZip(previous, manifest), fileName, previous.id());
+        }
+        if (uploadResult == UploadResult.BASE_UNKNOWN) {
+            manifest = new SubmissionManifest();
+            uploadResult = HttpClientUploader.uploadZip(export.encryptedZip(null, manifest), fileName);
+        }
+
+        if (uploadResult == UploadResult.SUCCESS) {
+            manifest.save(manifestFile);
+        }
+        return uploadResult;
+    }
+
+    /**
+     * Writes the zip file to the temporary directory, uploads it and deletes it.
+     *
+     * @param zipContent Writes the zip file.
+     * @param fileName   The name of the file to be uploaded.
+     * @param resumable  Whether the file is uploaded in parts that can be resumed.
+     * @param indicator  The progress indicator of the task.
+     * @return The result of the upload.
+     */
+    private UploadResult uploadThroughTempFile(HttpClientUploader.ZipContent zipContent, String fileName,
+                                               boolean resumable, @NotNull ProgressIndicator indicator) {
+        File zipFile = new File(System.getProperty("java.io.tmpdir"), fileName + ".zip");
+        try {
+            indicator.setText("Encrypting and zipping project files");
+            try (OutputStream stream = Files.newOutputStream(zipFile.toPath())) {
+                zipContent.writeTo(stream);
+            }
+            indicator.setText("Sending project to server");
+            indicator.setText2("");
+            return resumable
+                    ? HttpClientUploader.uploadZipFileResumable(zipFile, fileName, indicator)
+                    : HttpClientUploader.uploadZipFile(zipFile, fileName);
+        } catch (IOException ex) {
+            LOG.error("Error saving to zip", ex);
+            return UploadResult.FAILED;
+        } finally {
+            if (zipFile.exists()) zipFile.delete();
+        }
     }
 
     /**
@@ -0,0 +1,294 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Uploads a zip file in fixed-size parts, so that a failure only costs the part being sent.
+ * <p>
+ * The protocol, relative to the upload URL of the pool ({@code <server>/upload/<poolID>}):
+ * <ul>
+ *     <li>{@code GET /<uploadId>} returns the number of bytes the server already holds (0 if none).</li>
+ *     <li>{@code PUT /<uploadId>?offset=<offset>} appends a part, with its CRC32C in the
+ *     {@value #PART_CHECKSUM_HEADER} header and the size of the whole file in {@value #TOTAL_SIZE_HEADER}.
+ *     It returns the new offset, 409 with the current offset if the offset is wrong,
+ *     or 422 if the checksum does not match.</li>
+ *     <li>{@code POST /<uploadId>/complete?fileName=<name>} with the SHA-256 of the whole file in
+ *     {@value #FILE_CHECKSUM_HEADER} returns "success" once the file is complete.</li>
+ * </ul>
+ * The upload id is derived from the file name and content, so an upload resumes from the offset held by the
+ * server only if the file is the same, byte for byte, as the one whose upload was interrupted. Within an upload
+ * that is always the case; a later export gives the same zip only if nothing in the project, its log included,
+ * changed in between. Failed requests are retried with exponential backoff and jitter, so that clients do not
+ * retry all at once when the server is overloaded. A part the server does not advance the offset for also
+ * counts as a failure, so a server that keeps answering with the same offset does not hold the upload forever.
+ */
+public class ResumableUploader {
+
+    private static final Logger LOG = Logger.getInstance(ResumableUploader.class);
+
+    public static final String PART_CHECKSUM_HEADER = "X-Part-CRC32C";
+    public static final String TOTAL_SIZE_HEADER = "X-Total-Size";
+    public static final String FILE_CHECKSUM_HEADER = "X-File-SHA256";
+
+    private static final long MAX_RETRY_DELAY = 30_000;
+
+    private final HttpClient httpClient;
+    private final String url;
+    private final int partSize;
+    private final int maxRetries;
+    private final long retryDelay;
+    private ProgressIndicator indicator;
+
+    /**
+     * Creates an uploader.
+     *
+     * @param httpClient the client used to send the requests
+     * @param url        the upload URL of the pool
+     * @param partSize   the size of each part in bytes
+     * @param maxRetries the number of consecutive failed requests before giving up
+     * @param retryDelay the delay in milliseconds before the first retry, doubled on each retry
+     */
+    public ResumableUploader(@NotNull HttpClient httpClient, @NotNull String url, int partSize, int maxRetries,
+                             long retryDelay) {
+        this.httpClient = httpClient;
+        this.url = url;
+        this.partSize = partSize;
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Sets the progress indicator that shows the part of the file uploaded. Canceling it stops the upload
+     * with a ProcessCanceledException, the server keeps the parts already sent.
+     *
+     * @param indicator the progress indicator, or null to show no progress
+     */
+    public void setProgressIndicator(@Nullable ProgressIndicator indicator) {
+        this.indicator = indicator;
+    }
+
+    /**
+     * Uploads a zip file, resuming a previous upload of the same file if the server holds part of it.
+     *
+     * @param zipFile  the zip file
+     * @param fileName the name the file is submitted with
+     * @return the result of the upload
+     */
+    public @NotNull UploadResult upload(@NotNull Path zipFile, @NotNull String fileName) {
+        String sha256;
+        long size;
+        try {
+            sha256 = Hashes.sha256(zipFile);
+            size = Files.size(zipFile);
+        } catch (IOException e) {
+            LOG.warn("Error reading the file to submit: " + zipFile, e);
+            return UploadResult.FAILED;
+        }
+        String uploadUrl = url + "/" + uploadId(fileName, sha256);
+
+        try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+            ByteBuffer part = ByteBuffer.allocate(partSize);
+            boolean reachedServer = false;
+            int failures = 0;
+            // Unknown until the server is asked
+            long offset = -1;
+
+            while (true) {
+                try {
+                    if (indicator != null) {
+                        indicator.checkCanceled();
+                    }
+                    if (offset < 0) {
+                        offset = queryOffset(uploadUrl);
+                        reachedServer = true;
+                    }
+                    if (offset >= size) {
+                        if (complete(uploadUrl, fileName, sha256)) {
+                            LOG.info("Project successfully submitted.");
+                            return UploadResult.SUCCESS;
+                        }
+                        return UploadResult.FAILED;
+                    }
+                    readPart(channel, offset, part);
+                    long sent = offset;
+                    offset = sendPart(uploadUrl, sent, part, size);
+                    if (offset <= sent) {
+                        if (!retry(++failures, new IOException("The server did not advance the offset " + sent))) {
+                            return UploadResult.FAILED;
+                        }
+                        continue;
+                    }
+                    failures = 0;
+                    if (indicator != null) {
+                        indicator.setIndeterminate(false);
+                        indicator.setFraction((double) offset / size);
+                    }
+                } catch (StatusException e) {
+                    if (!e.isRetryable()) {
+                        LOG.warn("Error submitting the project: " + e.getMessage());
+                        return UploadResult.FAILED;
+                    }
+                    offset = -1;
+                    if (!retry(++failures, e)) return UploadResult.FAILED;
+                } catch (IOException e) {
+                    offset = -1;
+                    if (!retry(++failures, e)) {
+                        return reachedServer || !HttpClientUploader.isServerOffline(e)
+                                ? UploadResult.FAILED : UploadResult.SERVER_OFFLINE;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Error reading the file to submit: " + zipFile, e);
+            return UploadResult.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return UploadResult.FAILED;
+        }
+    }
+
+    // Waits before the next attempt, or returns false if there are no attempts left
+    private boolean retry(int failures, @NotNull IOException e) throws InterruptedException {
+        if (failures > maxRetries) {
+            LOG.warn("Error submitting the project, giving up after " + maxRetries + " retries: " + e.getMessage());
+            return false;
+        }
+        // Full jitter: a random delay up to the exponential backoff
+        long backoff = Math.min(MAX_RETRY_DELAY, retryDelay << Math.min(failures - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        LOG.info("Error submitting the project, retrying in " + delay + " ms: " + e.getMessage());
+        // Wait in short steps so that canceling the indicator does not wait for the whole delay
+        long end = System.nanoTime() + delay * 1_000_000;
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            if (indicator != null) {
+                indicator.checkCanceled();
+            }
+            Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, 100));
+        }
+        return true;
+    }
+
+    // Reads the part starting at the offset, the last one may be shorter
+    private static void readPart(@NotNull FileChannel channel, long offset, @NotNull ByteBuffer part)
+            throws IOException {
+        part.clear();
+        while (part.hasRemaining()) {
+            if (channel.read(part, offset + part.position()) < 0) break;
+        }
+        part.flip();
+    }
+
+    private long queryOffset(@NotNull String uploadUrl) throws IOException {
+        HttpGet httpGet = new HttpGet(uploadUrl);
+        return parseOffset(execute(httpGet, 200));
+    }
+
+    private long sendPart(@NotNull String uploadUrl, long offset, @NotNull ByteBuffer part, long size)
+            throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(part.array(), 0, part.limit());
+
+        HttpPut httpPut = new HttpPut(withParameter(uploadUrl, "offset", Long.toString(offset)));
+        httpPut.setHeader(PART_CHECKSUM_HEADER, Long.toHexString(crc.getValue()));
+        httpPut.setHeader(TOTAL_SIZE_HEADER, Long.toString(size));
+        httpPut.setEntity(new ByteArrayEntity(part.array(), 0, part.limit(), ContentType.APPLICATION_OCTET_STREAM));
+        try {
+            return parseOffset(execute(httpPut, 200));
+        } catch (StatusException e) {
+            // The server holds a different offset, continue from there
+            if (e.status == 409) return parseOffset(e.body);
+            throw e;
+        }
+    }
+
+    private boolean complete(@NotNull String uploadUrl, @NotNull String fileName, @NotNull String sha256)
+            throws IOException {
+        HttpPost httpPost = new HttpPost(withParameter(uploadUrl + "/complete", "fileName", fileName + ".zip"));
+        httpPost.setHeader(FILE_CHECKSUM_HEADER, sha256);
+        String response = execute(httpPost, 200);
+        if (!response.equals("success")) {
+            LOG.warn("Error submitting the project. Server response: " + response);
+            return false;
+        }
+        return true;
+    }
+
+    private @NotNull String execute(@NotNull HttpUriRequest request, int expectedStatus) throws IOException {
+        return httpClient.execute(request, httpResponse -> {
+            String body = httpResponse.getEntity() == null ? "" : EntityUtils.toString(httpResponse.getEntity());
+            int status = httpResponse.getStatusLine().getStatusCode();
+            if (status != expectedStatus) throw new StatusException(status, body);
+            return body.trim();
+        });
+    }
+
+    private static long parseOffset(@NotNull String body) throws IOException {
+        try {
+            return Long.parseLong(body.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid offset from server: " + body);
+        }
+    }
+
+    private static @NotNull URI withParameter(@NotNull String url, @NotNull String name, @NotNull String value)
+            throws IOException {
+        try {
+            return new URIBuilder(url).addParameter(name, value).build();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static @NotNull String uploadId(@NotNull String fileName, @NotNull String sha256) {
+        MessageDigest digest = Hashes.sha256Digest();
+        digest.update(fileName.getBytes(StandardCharsets.UTF_8));
+        digest.update(sha256.getBytes(StandardCharsets.US_ASCII));
+        return Hashes.toHex(digest.digest()).substring(0, 32);
+    }
+
+    /**
+     * Unexpected status returned by the server. Overloaded servers (429 and 5xx) and rejected checksums
+     * are worth retrying, any other status is final.
+     */
+    private static class StatusException extends IOException {
+        final int status;
+        final String body;
+
+        StatusException(int status, String body) {
+            super("Server returned status " + status + ": " + body);
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean isRetryable() {
+            return status == 408 || status == 422 || status == 429 || status >= 500;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash of every entry of a submitted .zip file, used to send only the files that changed since the last
+ * accepted submission. The manifest is written as one line per entry, "&lt;sha256&gt; &lt;entry name&gt;",
+ * sorted by entry name, both inside the submitted .zip file and in the copy kept by the plugin.
+ * The hash is the SHA-256 of the plain file, which identifies its encrypted version too.
+ */
+public class SubmissionManifest {
+
+    private static final Logger LOG = Logger.getInstance(SubmissionManifest.class);
+
+    /** Name of the manifest entry inside a submitted .zip file. */
+    public static final String ENTRY_NAME = "uoc.manifest";
+
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns where the manifest of the last accepted submission to a pool is kept.
+     *
+     * @param server   the server address
+     * @param poolID   the pool ID
+     * @param fileName the name the project is submitted with
+     * @return the path of the manifest, inside the IDE system directory
+     */
+    public static @NotNull Path location(@NotNull String server, @NotNull String poolID, @NotNull String fileName) {
+        String key = server + "/upload/" + poolID + "/" + fileName;
+        String id = Hashes.sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 32);
+        return Paths.get(PathManager.getSystemPath(), "uocsubmissionsystem", "submissions", id + ".manifest");
+    }
+
+    /**
+     * Loads a manifest saved by {@link #save(Path)}.
+     *
+     * @param file the manifest file
+     * @return the manifest, empty if the file does not exist or cannot be read
+     */
+    public static @NotNull SubmissionManifest load(@NotNull Path file) {
+        SubmissionManifest manifest = new SubmissionManifest();
+        if (!Files.exists(file)) return manifest;
+
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    manifest.put(line.substring(space + 1), line.substring(0, space));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Error loading the submission manifest: " + file, e);
+            manifest.hashes.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest, replacing the previous one.
+     *
+     * @param file the manifest file
+     */
+    public void save(@NotNull Path file) {
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, toBytes());
+        } catch (IOException e) {
+            LOG.warn("Error saving the submission manifest: " + file, e);
+        }
+    }
+
+    /**
+     * Computes the hash recorded for a file.
+     *
+     * @param file the file
+     * @return the SHA-256 of the file, in hexadecimal
+     * @throws IOException if the file cannot be read
+     */
+    public static @NotNull String hash(@NotNull Path file) throws IOException {
+        return Hashes.sha256(file);
+    }
+
+    public void put(@NotNull String entryName, @NotNull String hash) {
+        hashes.put(entryName, hash);
+    }
+
+    public @Nullable String get(@NotNull String entryName) {
+        return hashes.get(entryName);
+    }
+
+    public boolean isEmpty() {
+        return hashes.isEmpty();
+    }
+
+    /**
+     * Identifies the manifest, so that the server can check that it holds the submission a delta is based on.
+     *
+     * @return the SHA-256 of the manifest content, in hexadecimal
+     */
+    public @NotNull String id() {
+        return Hashes.sha256(toBytes());
+    }
+
+    public byte @NotNull [] toBytes() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(hashes).forEach((entryName, hash) -> sb.append(hash).append(' ').append(entryName).append('\n'));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,15 @@
+package edu.uoc.allago.uocsubmissionsystem;
+
+/**
+ * Result of sending a project to the server.
+ */
+public enum UploadResult {
+    /** The server received and accepted the project. */
+    SUCCESS,
+    /** The server could not be reached. */
+    SERVER_OFFLINE,
+    /** The server was reached but the project could not be submitted. */
+    FAILED,
+    /** The server does not hold the submission a delta submission is based on, the whole project must be sent. */
+    BASE_UNKNOWN
+}
@@ -2,41 +2,52 @@ package edu.uoc.allago.uocsubmissionsystem;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Parameter;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UserActionLogger {
     private static final Logger LOG = Logger.getInstance(UserActionLogger.class);
     private static final String NEW_LINE = System.lineSeparator();
     private final String baseDir;
-    private String lastFileMD;
     private final boolean isUOCProject;
-    private final CipherTools cipherTools;
+    private final EventJournal journal;
     private final String dataFile;
-    private final int minTimeBetweenLogs;
-    private final AtomicBoolean blockWriteMD = new AtomicBoolean(false);
-    private final AtomicBoolean blockWriteTime = new AtomicBoolean(false);
-    private LocalDateTime lastOpenedTime;
+    // Throttling deadlines, compared with System.nanoTime() so that no timer is needed to clear them
+    private volatile long writeMDBlockedUntil;
+    private volatile long lastOpenedTime;
     private final int delayInSeconds;
-    private final List<String> relevantExtensions;
+    private final FileClassifier classifier;
+    private final int maxPastedCode;
+    private final int maxBufferedPastedCode;
+    private final int maxFileEventsPerBatch;
     private final List<String> relevantSequences;
-    private static ScheduledExecutorService scheduler;
-    private static final List<String> eventBuffer = Collections.synchronizedList(new ArrayList<>());
+    private final EventBuffer eventBuffer;
+
+    // Single thread shared by all projects that writes the buffered events periodically and processes pasted code
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "UOC event writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Builder reused by every write on the same thread to encode the events
+    private static final ThreadLocal<StringBuilder> ENCODE_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(8 * 1024));
+    // Builders that grew larger than this, after a large paste, are not kept
+    private static final int MAX_ENCODE_BUFFER = 1024 * 1024;
+    // Periodic write of every open project, by base directory
+    private static final Map<String, ScheduledFuture<?>> scheduledWrites = new ConcurrentHashMap<>();
 
     /**
      * Constructor for UserActionLogger, initializes values and loads properties.
@@ -45,21 +56,22 @@ public class UserActionLogger {
      */
     public UserActionLogger(@NotNull Project project) {
         dataFile = PropertiesLoader.getProperty("dataFile");
-        lastFileMD = "";
-        cipherTools = new CipherTools();
         baseDir = project.getBasePath();
+        journal = new EventJournal(baseDir, dataFile, new CipherTools());
+        eventBuffer = EventBuffer.forProject(baseDir);
 
         File inputFile = new File(baseDir + "/" + dataFile + ".uoc");
         isUOCProject = inputFile.exists();
 
-        minTimeBetweenLogs = PropertiesLoader.getIntProperty("minTimeBetweenLogs");
+        long now = System.nanoTime();
+        writeMDBlockedUntil = now;
+        lastOpenedTime = now;
+
         delayInSeconds = PropertiesLoader.getIntProperty("delayInSeconds");
-        String relevantExtensionsProperty = PropertiesLoader.getProperty("relevantExtensions");
-        if (relevantExtensionsProperty != null && !relevantExtensionsProperty.isEmpty()) {
-            relevantExtensions = Arrays.asList(relevantExtensionsProperty.split(","));
-        } else {
-            relevantExtensions = Collections.emptyList();
-        }
+        classifier = FileClassifier.fromProperties();
+        maxPastedCode = PropertiesLoader.getIntProperty("maxPastedCode");
+        maxBufferedPastedCode = PropertiesLoader.getIntProperty("maxBufferedPastedCode");
+        maxFileEventsPerBatch = PropertiesLoader.getIntProperty("maxFileEventsPerBatch");
         String relevantSequencesProperty = PropertiesLoader.getProperty("relevantSequences");
         if (relevantSequencesProperty != null && !relevantSequencesProperty.isEmpty()) {
             relevantSequences = Arrays.asList(relevantSequencesProperty.split(","));
@@ -67,10 +79,12 @@ public class UserActionLogger {
             relevantSequences = Collections.emptyList();
         }
 
-        // Time between writes to the hard disk
-        int period = PropertiesLoader.getIntProperty("eventsToFilePeriod");
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> writeBufferedEventsToFile(), period, period, TimeUnit.MINUTES);
+        // Time between writes to the hard disk, scheduled once per project
+        if (isUOCProject) {
+            int period = PropertiesLoader.getIntProperty("eventsToFilePeriod");
+            scheduledWrites.computeIfAbsent(String.valueOf(baseDir), dir -> scheduler.scheduleAtFixedRate(
+                    this::writeBufferedEventsPeriodically, period, period, TimeUnit.MINUTES));
+        }
     }
 
     /**
@@ -80,82 +94,156 @@ public class UserActionLogger {
      */
     public void write(Boolean opened) {
         if (!isUOCProject) return;
-        String content = opened ? "OP" : "CL";
-        addToBuffer(content + time() + NEW_LINE);
+        addToBuffer(new EventBuffer.Event(opened ? EventBuffer.Type.OP : EventBuffer.Type.CL,
+                System.currentTimeMillis(), 0, null, null));
         if (opened) {
-            lastOpenedTime = LocalDateTime.now();
+            lastOpenedTime = System.nanoTime();
         }
     }
 
     /**
      * Writes the modified file name, timestamp and potentially line number to the eventBuffer.
+     * The edits made to the same file within minTimeBetweenLogs seconds are logged as a single
+     * event with the first and last lines edited.
      *
      * @param fileMD     The modified file name.
      * @param fileNameWithPath The modified file path.
      * @param lineNumber The line number where the code was changed, or 0 if the file was deleted.
      */
     public void writeMD(String fileMD, String fileNameWithPath, int lineNumber) {
-        if (!isUOCProject || shouldSkip(fileNameWithPath) || lineNumber == 1 || blockWriteMD.get()) return;
-        if (lastFileMD.equals(fileMD) && blockWriteTime.get()) return;
-
-        // Save last logged file
-        lastFileMD = fileMD;
-        LOG.info("Writing to uoc.data, edited file: " + fileMD);
-
-        // Unblock after minTimeBetweenLogs seconds
-        blockWriteTime.set(true);
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.schedule(() -> blockWriteTime.set(false), minTimeBetweenLogs, TimeUnit.SECONDS);
-        addToBuffer("MD" + time() + "Line: " +
-                lineNumber + "     File: " + fileMD + NEW_LINE);
+        if (!isUOCProject || shouldSkip(fileNameWithPath) || lineNumber == 1 || isBlocked(writeMDBlockedUntil)) return;
+        eventBuffer.addModification(fileNameWithPath, fileMD, lineNumber);
+    }
+
+    /**
+     * Writes the modification of a file like {@link #writeMD(String, String, int)}, reusing the
+     * verdict of the last check of the file.
+     *
+     * @param fileMD     The modified file name.
+     * @param file       The modified file.
+     * @param lineNumber The line number where the code was changed.
+     */
+    public void writeMD(String fileMD, @NotNull VirtualFile file, int lineNumber) {
+        if (!isUOCProject || shouldSkip(file) || lineNumber == 1 || isBlocked(writeMDBlockedUntil)) return;
+        eventBuffer.addModification(file.getPath(), fileMD, lineNumber);
     }
 
     /**
      * Writes the modified file name, timestamp, line number and added code to the eventBuffer.
+     * Only a reference to the code is kept here, it is checked, truncated and stored in the background.
      *
      * @param fileMD     The modified file name.
      * @param fileNameWithPath The modified file path.
      * @param lineNumber The line number where the code was added.
      * @param addedCode  The code that was added.
      */
-    public void writeLargeMD(String fileMD,String fileNameWithPath, int lineNumber, String addedCode) {
-        if (!isUOCProject || shouldSkip(fileNameWithPath) || shouldSkipCode(addedCode) || blockWriteMD.get()) return;
-
-        // Save last logged file
-        lastFileMD = fileMD;
-        addToBuffer("MD" + time() + "Line: " +
-                lineNumber + "     File: " + fileMD + "     PASTED CODE:" + NEW_LINE + NEW_LINE +
-                addedCode + NEW_LINE + NEW_LINE);
+    public void writeLargeMD(String fileMD, String fileNameWithPath, int lineNumber, CharSequence addedCode) {
+        if (!isUOCProject || shouldSkip(fileNameWithPath) || isBlocked(writeMDBlockedUntil)) return;
+        capturePastedCode(fileMD, lineNumber, addedCode);
     }
 
     /**
-     * Logs the creation or deletion of a file in the project.
-     * <p>
-     * If the file is part of a UOC project and does not meet the skip criteria,
-     * this method logs the file creation or deletion event with a timestamp.
+     * Writes the code added to a file like {@link #writeLargeMD(String, String, int, CharSequence)}, reusing
+     * the verdict of the last check of the file.
+     *
+     * @param fileMD     The modified file name.
+     * @param file       The modified file.
+     * @param lineNumber The line number where the code was added.
+     * @param addedCode  The code that was added.
+     */
+    public void writeLargeMD(String fileMD, @NotNull VirtualFile file, int lineNumber, CharSequence addedCode) {
+        if (!isUOCProject || shouldSkip(file) || isBlocked(writeMDBlockedUntil)) return;
+        capturePastedCode(fileMD, lineNumber, addedCode);
+    }
+
+    // Process the pasted code off the calling thread, usually the EDT
+    private void capturePastedCode(String fileMD, int lineNumber, @NotNull CharSequence addedCode) {
+        long time = System.currentTimeMillis();
+        scheduler.execute(() -> {
+            try {
+                writePastedCode(fileMD, lineNumber, addedCode, time);
+            } catch (RuntimeException e) {
+                LOG.warn("Error logging pasted code", e);
+            }
+        });
+    }
+
+    // Runs on the logger thread
+    private void writePastedCode(String fileMD, int lineNumber, @NotNull CharSequence addedCode, long time) {
+        if (shouldSkipCode(addedCode)) return;
+        addToBuffer(new EventBuffer.Event(EventBuffer.Type.MD, time, lineNumber, fileMD, boundedCode(addedCode)));
+
+        // Write to disk instead of holding too much pasted code in memory, or if the project was closed
+        if (eventBuffer.getPastedCodeSize() > maxBufferedPastedCode || eventBuffer.isReleased()) {
+            writeBufferedEventsToFile();
+        }
+    }
+
+    /**
+     * Logs the change of a document in the background. Only a reference to the added code is taken here,
+     * it is processed on the logger thread.
      *
-     * @param fileMD The name of the file being created or deleted.
-     * @param fileNameWithPath The path of the file being created or deleted.
-     * @param delete A Boolean flag indicating whether the file is being deleted.
-     *               If true, the file is being deleted.
-     *               If false, the file is being created.
+     * @param file       The modified file.
+     * @param lineNumber The line number where the code was changed.
+     * @param addedCode  The code that was added if the change is large enough to log it, null otherwise.
      */
-    public void writeCreateDelete(String fileMD, String fileNameWithPath, Boolean delete) {
-        if (!isUOCProject || shouldSkip(fileNameWithPath)) return;
-        LOG.info("Writing to uoc.data, edited file: " + fileMD);
+    public void writeChange(@NotNull VirtualFile file, int lineNumber, @Nullable CharSequence addedCode) {
+        if (!isUOCProject || shouldSkip(file) || isBlocked(writeMDBlockedUntil)) return;
+        long time = System.currentTimeMillis();
+        scheduler.execute(() -> {
+            try {
+                if (addedCode != null) {
+                    writePastedCode(file.getName(), lineNumber, addedCode, time);
+                } else {
+                    writeMD(file.getName(), file, lineNumber);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Error logging document change", e);
+            }
+        });
+    }
 
-        if (Duration.between(lastOpenedTime, LocalDateTime.now()).getSeconds() < delayInSeconds) {
+    // Keep at most maxPastedCode characters, identifying the whole code by its length and hash
+    private @NotNull String boundedCode(@NotNull CharSequence code) {
+        if (code.length() <= maxPastedCode) {
+            return code.toString();
+        }
+        return code.subSequence(0, maxPastedCode) + NEW_LINE + "[TRUNCATED: " + code.length() +
+                " characters, SHA-256 " + Hashes.sha256(code) + "]";
+    }
+
+    /**
+     * Collects the files of the project created and deleted by a batch of file events that are logged.
+     *
+     * @param events The file events of the batch.
+     * @return The files, or null if there is nothing to log.
+     */
+    public @Nullable FileChangeBatch collectFileChanges(@NotNull List<? extends VFileEvent> events) {
+        if (!isUOCProject || baseDir == null) return null;
+        return FileChangeBatch.collect(events, baseDir, classifier);
+    }
+
+    /**
+     * Logs the files created and deleted by a batch of file events.
+     * <p>
+     * Each file is logged with its own event, unless there are more than maxFileEventsPerBatch files of
+     * the same kind, which are logged as a single event with their number.
+     *
+     * @param batch The files created and deleted.
+     */
+    public void writeCreateDelete(@NotNull FileChangeBatch batch) {
+        if (!isUOCProject) return;
+        if (System.nanoTime() - lastOpenedTime < TimeUnit.SECONDS.toNanos(delayInSeconds)) {
             return;
         }
-        if (delete) {
-            addToBuffer("DL" + time() + " File: " + fileMD + NEW_LINE);
-        } else {
-            addToBuffer("CR" + time() + " File: " + fileMD + NEW_LINE);
+        LOG.info("Writing to uoc.data, created or deleted files: " + batch.size());
 
-            // Suspend writeMD and writeLargeMD
-            blockWriteMD.set(true);
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> blockWriteMD.set(false), 3, TimeUnit.SECONDS);
+        for (EventBuffer.Event event : batch.toEvents(System.currentTimeMillis(), maxFileEventsPerBatch)) {
+            addToBuffer(event);
+        }
+        if (batch.hasCreated()) {
+            // Suspend writeMD and writeLargeMD for 3 seconds
+            writeMDBlockedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
         }
     }
 
@@ -166,43 +254,23 @@ public class UserActionLogger {
      * @return True if the file should be skipped, false otherwise.
      */
     public boolean shouldSkip(@NotNull String filePath) {
-        File file = new File(filePath);
-
-        // Obtain the file extension
-        String extension = "";
-        int i = file.getName().lastIndexOf('.');
-        if (i > 0) {
-            extension = file.getName().substring(i + 1);
-        }
-
-        // Ignore everything inside this directories
-        if (filePath.contains(File.separator + ".idea" + File.separator) ||
-                filePath.contains(File.separator + "cmake-build-debug" + File.separator) ||
-                filePath.contains(File.separator + "Testing" + File.separator) ||
-                filePath.contains(File.separator + "CMakeFiles" + File.separator) ||
-                filePath.contains(File.separator + ".cmake" + File.separator)) {
-            return true;
-        }
+        return classifier.shouldSkip(filePath);
+    }
 
-        return file.getName().equals(".uoc.data") ||
-                file.getName().equals("catalog.json") ||
-                file.getName().equals("a.dummy") ||
-                file.getName().startsWith("index-20") ||
-                file.getName().endsWith(".uoc") ||
-                file.getName().endsWith(".ninja") ||
-                i == -1 ||
-                file.getName().endsWith("pycharm-debug.egg") || // PyCharm
-                file.getName().endsWith("CMakeLists.txt") || // CLion
-                file.getName().endsWith(".eslintrc") || // WebStorm
-                file.getName().endsWith(".babelrc") ||
-                file.getName().endsWith("package.json") ||
-                file.getName().endsWith("webpack.config.js") ||
-                !relevantExtensions.contains(extension);// Return false if it is not an allowed extension
+    /**
+     * Checks if a given file should be skipped when logging, reusing the verdict of the last check
+     * until the file is renamed or moved.
+     *
+     * @param file The file.
+     * @return True if the file should be skipped, false otherwise.
+     */
+    public boolean shouldSkip(@NotNull VirtualFile file) {
+        return classifier.shouldSkip(file);
     }
 
-    public boolean shouldSkipCode(String code) {
+    public boolean shouldSkipCode(CharSequence code) {
         // Return true if code is a string of only whitespace
-        if (code.trim().isEmpty()) {
+        if (isBlank(code)) {
             return true;
         }
         // Return false if code has more than cancelRelevantSequences characters
@@ -211,80 +279,84 @@ public class UserActionLogger {
         }
         // Check if code begins with any of the sequences in relevantSequences
         for (String sequence : relevantSequences) {
-            if (code.startsWith(sequence)) {
+            if (code.length() >= sequence.length() && sequence.contentEquals(code.subSequence(0, sequence.length()))) {
                 return true;
             }
         }
         return false;
     }
 
-    /**
-     * Returns the current timestamp as a formatted string.
-     *
-     * @return A string representing the current timestamp.
-     */
-    private @NotNull String time() {
-        LocalDateTime time = LocalDateTime.now();
-        return "     " + time.getHour() + ":" + time.getMinute() +
-                "     (" + time.getDayOfMonth() + "-" + time.getMonthValue() + "-" + time.getYear() + ")     ";
+    private static boolean isBlank(@NotNull CharSequence code) {
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Adds an event to the event buffer.
      *
-     * @param content The event to be added to the buffer.
+     * @param event The event to be added to the buffer.
      */
-    private void addToBuffer(@NotNull String content) {
-        eventBuffer.add(content);
+    private void addToBuffer(@NotNull EventBuffer.Event event) {
+        eventBuffer.add(event);
     }
 
     /**
      * Writes all buffered events to the uoc.data file.
      *
-     * This method decrypts the file, writes all events from the event buffer to the file,
-     * clears the buffer, and then encrypts the file again. If the project is not a UOC
-     * project or if the event buffer is empty, this method does nothing.
+     * The events are appended as one encrypted record to the journal of the uoc.data file, so that
+     * only the new events are written and the file is never decrypted on disk. If the project is not
+     * a UOC project or if the event buffer is empty, this method does nothing.
      *
      * In case of an IOException during file writing, this method logs the error and throws a RuntimeException.
      */
     public void writeBufferedEventsToFile() {
         if (!isUOCProject || eventBuffer.isEmpty()) return;
-        cipherTools.decryptFile(baseDir + "/" + dataFile + ".uoc");
-        Path path = Paths.get(baseDir + "/" + dataFile);
 
         try {
-            for (String event : eventBuffer) {
-                Files.write(path, event.getBytes(StandardCharsets.UTF_8),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.APPEND);
-            }
-            eventBuffer.clear();
+            eventBuffer.flush(events -> {
+                StringBuilder sb = ENCODE_BUFFER.get();
+                sb.setLength(0);
+                for (EventBuffer.Event event : events) {
+                    event.appendTo(sb);
+                }
+                byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+                if (sb.capacity() > MAX_ENCODE_BUFFER) {
+                    ENCODE_BUFFER.remove();
+                }
+                journal.append(content);
+            });
         } catch (IOException e) {
             LOG.error("Error writing to uoc.data, writeBufferedEventsToFile()", e);
             throw new RuntimeException(e);
         }
-        cipherTools.encryptFile(baseDir + "/" + dataFile);
+    }
+
+    // Write the buffered events from the scheduler, which would stop running the task if it threw
+    private void writeBufferedEventsPeriodically() {
+        try {
+            writeBufferedEventsToFile();
+        } catch (RuntimeException e) {
+            LOG.warn("The buffered events will be written again later", e);
+        }
+    }
+
+    // Check a throttling deadline, valid even if System.nanoTime() overflows
+    private static boolean isBlocked(long blockedUntil) {
+        return System.nanoTime() - blockedUntil < 0;
     }
 
     /**
-     * Stops all currently running tasks managed by the scheduler, if any.
+     * Stops writing the buffered events of the project periodically. The shared scheduler keeps
+     * running for the other projects, so this never waits for it.
      */
     public void stop() {
-        if (scheduler != null) {
-            scheduler.shutdown(); // Cancels existing tasks
-            try {
-                // Waits a while for existing tasks to terminate
-                if (!scheduler.awaitTermination(60, TimeUnit.SECONDS)) {
-                    scheduler.shutdownNow();
-
-                    // Waits a while for tasks to respond to being cancelled
-                    if (!scheduler.awaitTermination(60, TimeUnit.SECONDS))
-                        LOG.warn("The thread pool did not terminate correctly");
-                }
-            } catch (InterruptedException ie) {
-                scheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
+        ScheduledFuture<?> scheduledWrite = scheduledWrites.remove(String.valueOf(baseDir));
+        if (scheduledWrite != null) {
+            scheduledWrite.cancel(false);
         }
     }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -50,4 +51,39 @@ public class CipherToolsTest {
         String decryptedContent = new String(Files.readAllBytes(inputPath), StandardCharsets.UTF_8);
         assertEquals("This is a test file.", decryptedContent);
     }
+
+    @Test
+    public void testEncryptDecryptProjectWithSeparateInstances() throws IOException {
+        // Create a small project tree
+        File projectDir = tempFolder.newFolder("project");
+        Path first = projectDir.toPath().resolve("Main.java");
+        Path second = Files.createDirectories(projectDir.toPath().resolve("src")).resolve("Util.java");
+        Files.write(first, "class Main {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(second, "class Util {}".getBytes(StandardCharsets.UTF_8));
+
+        // Encrypt with one instance and decrypt with another one sharing the derived key
+        cipherTools.encryptProject(projectDir.toString());
+        assertTrue(Files.exists(Path.of(first + ".uoc")));
+        assertTrue(Files.exists(Path.of(second + ".uoc")));
+
+        int count = new CipherTools().decryptProject(projectDir.toString());
+        assertEquals(2, count);
+
+        assertEquals("class Main {}", new String(Files.readAllBytes(first), StandardCharsets.UTF_8));
+        assertEquals("class Util {}", new String(Files.readAllBytes(second), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncryptDecryptFileLargerThanBuffer() throws IOException {
+        // Content spanning several read buffers and not aligned to the cipher block size
+        byte[] content = new byte[200_003];
+        new Random(42).nextBytes(content);
+        Path inputPath = tempFolder.newFile("data.bin").toPath();
+        Files.write(inputPath, content);
+
+        cipherTools.encryptFile(inputPath.toString());
+        cipherTools.decryptFile(inputPath + ".uoc");
+
+        assertArrayEquals(content, Files.readAllBytes(inputPath));
+    }
 }
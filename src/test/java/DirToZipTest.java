@@ -1,25 +1,29 @@
+import edu.uoc.allago.uocsubmissionsystem.CipherTools;
 import edu.uoc.allago.uocsubmissionsystem.DirToZip;
-import org.junit.After;
+import edu.uoc.allago.uocsubmissionsystem.SubmissionManifest;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.junit.Assert.*;
 
 public class DirToZipTest {
 
     private DirToZip dirToZip;
-    private Path testFile;
-    private Path copiedFile;
 
     @Rule
     public TemporaryFolder tempFolder = new TemporaryFolder();
@@ -29,55 +33,108 @@ public class DirToZipTest {
         dirToZip = new DirToZip();
     }
 
-    @After
-    public void tearDown() throws IOException {
-        if(testFile != null && Files.exists(testFile)) {
-            Files.delete(testFile);
-        }
-        if(copiedFile != null && Files.exists(copiedFile)) {
-            Files.delete(copiedFile);
-        }
-    }
-
     @Test
-    public void testZip() throws IOException {
-        File tempDir = tempFolder.newFolder("testDir");
-        testFile = new File(tempDir, "test.txt1").toPath();
-        Files.write(testFile, "This is a test file.".getBytes(StandardCharsets.UTF_8));
+    public void testZipEncrypted() throws IOException {
+        File tempDir = tempFolder.newFolder("encryptedDir");
+        Files.write(new File(tempDir, "test.txt").toPath(), "This is a test file.".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tempDir, "CMakeLists.txt").toPath(), "project(test)".getBytes(StandardCharsets.UTF_8));
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        dirToZip.zip(tempDir.getAbsolutePath(), outputStream);
-
-        assertFalse(outputStream.size() == 0);
+        dirToZip.zipEncrypted(tempDir.getAbsolutePath(), outputStream, new CipherTools(), ".uoc.data",
+                "Name: test".getBytes(StandardCharsets.UTF_8));
+
+        Set<String> entries = new HashSet<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        // Project files are encrypted, CMakeLists.txt is kept as is, and the data file is added
+        assertTrue(entries.contains("test.txt.uoc"));
+        assertTrue(entries.contains("CMakeLists.txt"));
+        assertTrue(entries.contains(".uoc.data.uoc"));
+        assertFalse(entries.contains("test.txt"));
     }
 
     @Test
-    public void testCopyToTemp() throws IOException {
-        Path tempDir = Paths.get("src/test/resources/tempDirectory");
-
-        testFile = tempDir.resolve("test1.txt");
-        Files.createDirectories(tempDir);
-        Files.write(testFile, "This is a test file.".getBytes(StandardCharsets.UTF_8));
-
-        //dirToZip.excludeStandard();
-        dirToZip.copyToTemp(tempDir.toString());
-
-        Path destinationPath = Paths.get(System.getProperty("java.io.tmpdir") + "/uoctemp");
-        copiedFile = destinationPath.resolve("test1.txt");
-        assertTrue(Files.exists(copiedFile));
-
-        String copiedContent = new String(Files.readAllBytes(copiedFile), StandardCharsets.UTF_8);
-        assertEquals("This is a test file.", copiedContent);
+    public void testZipEncryptedIsTheSameEveryTime() throws Exception {
+        File tempDir = tempFolder.newFolder("stableDir");
+        File file = new File(tempDir, "test.txt");
+        Files.write(file.toPath(), "This is a test file.".getBytes(StandardCharsets.UTF_8));
+        // A time years before the zip is written, on the 2 second resolution of the zip times
+        long lastModified = Instant.parse("2020-01-01T10:00:00Z").toEpochMilli();
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+        byte[] dataContent = "Name: test".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        dirToZip.zipEncrypted(tempDir.getAbsolutePath(), first, new CipherTools(), ".uoc.data", dataContent);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        dirToZip.zipEncrypted(tempDir.getAbsolutePath(), second, new CipherTools(), ".uoc.data", dataContent);
+
+        // So the upload id is the same, and an interrupted upload resumes
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+
+        // The entry has the time of the file, not the time the zip was written
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(first.toByteArray()))) {
+            ZipEntry entry;
+            boolean found = false;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals("test.txt.uoc")) {
+                    assertEquals(lastModified, entry.getTime());
+                    found = true;
+                }
+            }
+            assertTrue(found);
+        }
     }
 
-    @Test(expected = IOException.class)
-    public void testZipThrowsException() throws IOException {
+    @Test
+    public void testZipEncryptedDelta() throws IOException {
+        File tempDir = tempFolder.newFolder("deltaDir");
+        Files.write(new File(tempDir, "Unchanged.java").toPath(), "class Unchanged {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tempDir, "Changed.java").toPath(), "class Changed {}".getBytes(StandardCharsets.UTF_8));
+        byte[] dataContent = "Name: test".getBytes(StandardCharsets.UTF_8);
+        CipherTools cipherTools = new CipherTools();
+
+        SubmissionManifest previous = new SubmissionManifest();
+        dirToZip.zipEncrypted(tempDir.getAbsolutePath(), new ByteArrayOutputStream(), cipherTools, ".uoc.data",
+                dataContent, null, previous);
+
+        Files.write(new File(tempDir, "Changed.java").toPath(), "class Changed { int x; }".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tempDir, "New.java").toPath(), "class New {}".getBytes(StandardCharsets.UTF_8));
+        SubmissionManifest manifest = new SubmissionManifest();
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        dirToZip.zip("non/existent/path", outputStream);
+        dirToZip.zipEncrypted(tempDir.getAbsolutePath(), outputStream, cipherTools, ".uoc.data",
+                dataContent, previous, manifest);
+
+        Set<String> entries = new HashSet<>();
+        String manifestContent = null;
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.add(entry.getName());
+                if (entry.getName().equals(SubmissionManifest.ENTRY_NAME)) {
+                    manifestContent = new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        // Only the data file and the new or changed files are sent, the manifest lists every file
+        assertTrue(entries.contains(".uoc.data.uoc"));
+        assertTrue(entries.contains("Changed.java.uoc"));
+        assertTrue(entries.contains("New.java.uoc"));
+        assertFalse(entries.contains("Unchanged.java.uoc"));
+        assertNotNull(manifestContent);
+        assertTrue(manifestContent.contains(previous.get("Unchanged.java.uoc") + " Unchanged.java.uoc"));
+        assertTrue(manifestContent.contains(" Changed.java.uoc"));
+        assertTrue(manifestContent.contains(" New.java.uoc"));
+        assertNotEquals(previous.get("Changed.java.uoc"), manifest.get("Changed.java.uoc"));
     }
 
     @Test(expected = IOException.class)
-    public void testCopyToTempThrowsException() throws IOException {
-        dirToZip.copyToTemp("non/existent/path");
+    public void testZipEncryptedThrowsException() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        dirToZip.zipEncrypted("non/existent/path", outputStream, new CipherTools(), ".uoc.data",
+                "Name: test".getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,73 @@
+import edu.uoc.allago.uocsubmissionsystem.EditCoalescer;
+import edu.uoc.allago.uocsubmissionsystem.EventBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EditCoalescerTest {
+
+    private static final long WINDOW = 60_000_000_000L;
+
+    @Test
+    public void testEditsInWindowAreCollapsedPerFile() throws IOException {
+        EventBuffer buffer = new EventBuffer();
+        EditCoalescer coalescer = new EditCoalescer(WINDOW, 10, buffer);
+
+        // Switching between two files within the window
+        for (int i = 0; i < 100; i++) {
+            coalescer.modified("src/A.java", "A.java", 10 + i % 5, i * 1_000_000L, 1000 + i);
+            coalescer.modified("src/B.java", "B.java", 40 - i % 3, i * 1_000_000L, 1000 + i);
+        }
+        // After the window of A.java ends
+        coalescer.modified("src/A.java", "A.java", 3, WINDOW, 2000);
+        coalescer.closeAll();
+
+        List<String> lines = flush(buffer);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("Line: 10-14     File: A.java"));
+        assertTrue(lines.get(1), lines.get(1).contains("Line: 38-40     File: B.java"));
+        assertTrue(lines.get(2), lines.get(2).contains("Line: 3     File: A.java"));
+    }
+
+    @Test
+    public void testLeastRecentlyEditedFileIsWrittenWhenFull() throws IOException {
+        EventBuffer buffer = new EventBuffer();
+        EditCoalescer coalescer = new EditCoalescer(WINDOW, 2, buffer);
+
+        coalescer.modified("src/A.java", "A.java", 1, 0, 1000);
+        coalescer.modified("src/B.java", "B.java", 2, 1, 1001);
+        coalescer.modified("src/A.java", "A.java", 5, 2, 1002);
+        coalescer.modified("src/C.java", "C.java", 3, 3, 1003);
+
+        List<String> lines = flush(buffer);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("File: B.java"));
+        assertFalse(coalescer.isEmpty());
+    }
+
+    @Test
+    public void testFilesWithTheSameNameAreNotCollapsed() throws IOException {
+        EventBuffer buffer = new EventBuffer();
+        EditCoalescer coalescer = new EditCoalescer(WINDOW, 10, buffer);
+
+        coalescer.modified("client/main.cpp", "main.cpp", 5, 0, 1000);
+        coalescer.modified("server/main.cpp", "main.cpp", 50, 1, 1001);
+        coalescer.modified("client/main.cpp", "main.cpp", 8, 2, 1002);
+        coalescer.closeAll();
+
+        List<String> lines = flush(buffer);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("Line: 5-8     File: main.cpp"));
+        assertTrue(lines.get(1), lines.get(1).contains("Line: 50     File: main.cpp"));
+    }
+
+    private static List<String> flush(EventBuffer buffer) throws IOException {
+        List<String> lines = new ArrayList<>();
+        buffer.flush(events -> events.forEach(event -> lines.add(event.toString())));
+        return lines;
+    }
+}
@@ -0,0 +1,53 @@
+import edu.uoc.allago.uocsubmissionsystem.CipherTools;
+import edu.uoc.allago.uocsubmissionsystem.EncryptedFileCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class EncryptedFileCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testOnlyChangedFilesAreEncryptedAgain() throws IOException {
+        Path projectDir = tempFolder.newFolder("project").toPath();
+        Path cacheDir = tempFolder.getRoot().toPath().resolve("cache");
+        Path unchanged = projectDir.resolve("Unchanged.java");
+        Path changed = projectDir.resolve("Changed.java");
+        Files.write(unchanged, "class Unchanged {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(changed, "class Changed {}".getBytes(StandardCharsets.UTF_8));
+
+        CipherTools cipherTools = new CipherTools();
+        cipherTools.encryptProject(projectDir.toString());
+        byte[] unchangedCiphertext = Files.readAllBytes(Path.of(unchanged + ".uoc"));
+
+        // Open the project keeping the encrypted copies
+        cipherTools.decryptProject(projectDir.toString(), new EncryptedFileCache(projectDir, cacheDir));
+        assertFalse(Files.exists(Path.of(unchanged + ".uoc")));
+
+        // Edit one file without changing its size or modification time, and close the project
+        FileTime modified = Files.getLastModifiedTime(changed);
+        Files.write(changed, "class Changes {}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(changed, modified);
+        cipherTools.encryptProject(projectDir.toString(), new EncryptedFileCache(projectDir, cacheDir));
+
+        assertFalse(Files.exists(unchanged));
+        assertFalse(Files.exists(changed));
+        assertFalse(Files.exists(cacheDir));
+        assertArrayEquals(unchangedCiphertext, Files.readAllBytes(Path.of(unchanged + ".uoc")));
+
+        // The edited file contains the new content
+        cipherTools.decryptProject(projectDir.toString());
+        assertEquals("class Changes {}", new String(Files.readAllBytes(changed), StandardCharsets.UTF_8));
+        assertEquals("class Unchanged {}", new String(Files.readAllBytes(unchanged), StandardCharsets.UTF_8));
+    }
+}
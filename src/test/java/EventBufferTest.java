@@ -0,0 +1,131 @@
+import edu.uoc.allago.uocsubmissionsystem.EventBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class EventBufferTest {
+
+    @Test
+    public void testNoEventIsLostDuringFlush() throws Exception {
+        int producers = 4;
+        int eventsPerProducer = 20000;
+        EventBuffer buffer = new EventBuffer();
+        Set<Integer> written = new HashSet<>();
+        EventBuffer.EventWriter writer = events -> {
+            for (EventBuffer.Event event : events) {
+                assertTrue("Event written twice", written.add(event.getLine()));
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int first = p * eventsPerProducer;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < first + eventsPerProducer; i++) {
+                        buffer.add(new EventBuffer.Event(EventBuffer.Type.MD, i, i, "Main.java", null));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            // Flush while the events are being added
+            while (!futures.stream().allMatch(Future::isDone)) {
+                buffer.flush(writer);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            buffer.flush(writer);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(producers * eventsPerProducer, written.size());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testEventsAreKeptWhenWriteFails() throws Exception {
+        EventBuffer buffer = new EventBuffer();
+        buffer.add(new EventBuffer.Event(EventBuffer.Type.OP, 0, 0, null, null));
+        buffer.add(new EventBuffer.Event(EventBuffer.Type.MD, 0, 1, "Main.java", null));
+
+        try {
+            buffer.flush(events -> {
+                throw new IOException("disk full");
+            });
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+        buffer.add(new EventBuffer.Event(EventBuffer.Type.CL, 0, 0, null, null));
+
+        List<EventBuffer.Type> types = new ArrayList<>();
+        buffer.flush(events -> events.forEach(event -> types.add(event.getType())));
+        assertEquals(List.of(EventBuffer.Type.OP, EventBuffer.Type.MD, EventBuffer.Type.CL), types);
+    }
+
+    @Test
+    public void testTimeIsFormattedAsBefore() {
+        // Every second of two hours around midnight, and then in random order
+        long start = LocalDateTime.of(2023, 12, 31, 23, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        for (long time = start; time < start + 2 * 3600_000; time += 1000) {
+            assertEquals(expected(time), new EventBuffer.Event(EventBuffer.Type.OP, time, 0, null, null).toString());
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long time = start + (long) (random.nextDouble() * 365 * 24 * 3600_000L);
+            assertEquals(expected(time), new EventBuffer.Event(EventBuffer.Type.OP, time, 0, null, null).toString());
+        }
+    }
+
+    @Test
+    public void testEncodingDoesNotAllocate() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long time = System.currentTimeMillis();
+        EventBuffer.Event event = new EventBuffer.Event(EventBuffer.Type.MD, time, 12, 40, "Main.java", null);
+        StringBuilder sb = new StringBuilder(1024);
+        for (int i = 0; i < 10000; i++) {
+            sb.setLength(0);
+            event.appendTo(sb);
+        }
+
+        int events = 100_000;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < events; i++) {
+            sb.setLength(0);
+            event.appendTo(sb);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Allocated " + allocated + " bytes", allocated < events);
+    }
+
+    private static String expected(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        return "OP" + "     " + time.getHour() + ":" + time.getMinute() +
+                "     (" + time.getDayOfMonth() + "-" + time.getMonthValue() + "-" + time.getYear() + ")     " +
+                System.lineSeparator();
+    }
+}
@@ -0,0 +1,79 @@
+import edu.uoc.allago.uocsubmissionsystem.CipherTools;
+import edu.uoc.allago.uocsubmissionsystem.EventJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndReadAll() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve(".uoc.data" + EventJournal.FILE_SUFFIX);
+        new EventJournal(file, new CipherTools()).append(bytes("OP first\n"));
+        long size = Files.size(file);
+
+        // A second instance appends after the records of the first one
+        EventJournal journal = new EventJournal(file, new CipherTools());
+        journal.append(bytes("MD second\n"));
+
+        assertTrue(Files.size(file) > size);
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("second"));
+        assertEquals("OP first\nMD second\n", string(journal.readAll()));
+    }
+
+    @Test
+    public void testTamperedRecordIsSkipped() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve(".uoc.data" + EventJournal.FILE_SUFFIX);
+        EventJournal journal = new EventJournal(file, new CipherTools());
+        journal.append(bytes("OP first\n"));
+        long firstEnd = Files.size(file);
+        journal.append(bytes("MD second\n"));
+
+        // Flip a byte of the ciphertext of the first record
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(firstEnd - 1);
+            int b = raf.read();
+            raf.seek(firstEnd - 1);
+            raf.write(b ^ 1);
+        }
+
+        assertEquals("MD second\n", string(journal.readAll()));
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve(".uoc.data" + EventJournal.FILE_SUFFIX);
+        new EventJournal(file, new CipherTools()).append(bytes("OP first\n"));
+        long size = Files.size(file);
+
+        // A crash in the middle of the second record
+        new EventJournal(file, new CipherTools()).append(bytes("MD second\n"));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size + 10);
+        }
+        EventJournal journal = new EventJournal(file, new CipherTools());
+        assertEquals("OP first\n", string(journal.readAll()));
+
+        journal.append(bytes("CL third\n"));
+        assertEquals("OP first\nCL third\n", string(journal.readAll()));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,40 @@
+import edu.uoc.allago.uocsubmissionsystem.EventBuffer;
+import edu.uoc.allago.uocsubmissionsystem.FileChangeBatch;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileChangeBatchTest {
+
+    @Test
+    public void testSmallBatchIsLoggedPerFile() {
+        FileChangeBatch batch = new FileChangeBatch(List.of("/project/src/Main.java", "/project/src/Main.java"),
+                List.of("/project/src/Util.java"));
+
+        List<EventBuffer.Event> events = batch.toEvents(0, 20);
+        assertEquals(2, events.size());
+        assertEquals(EventBuffer.Type.CR, events.get(0).getType());
+        assertEquals("Main.java", events.get(0).getFile());
+        assertEquals(EventBuffer.Type.DL, events.get(1).getType());
+        assertEquals("Util.java", events.get(1).getFile());
+    }
+
+    @Test
+    public void testLargeBatchIsSummarized() {
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            created.add("/project/build/generated/File" + i + ".java");
+        }
+        FileChangeBatch batch = new FileChangeBatch(created, List.of());
+
+        List<EventBuffer.Event> events = batch.toEvents(0, 20);
+        assertEquals(1, events.size());
+        assertEquals(EventBuffer.Type.CR, events.get(0).getType());
+        assertEquals("File0.java and 49999 other files", events.get(0).getFile());
+        assertTrue(batch.hasCreated());
+        assertEquals(50000, batch.size());
+    }
+}
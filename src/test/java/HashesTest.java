@@ -0,0 +1,36 @@
+import edu.uoc.allago.uocsubmissionsystem.Hashes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class HashesTest {
+
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testFileBytesAndTextGiveTheSameHash() throws IOException {
+        Path file = tempFolder.newFile("abc.txt").toPath();
+        Files.write(file, "abc".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(ABC_SHA256, Hashes.sha256(file));
+        assertEquals(ABC_SHA256, Hashes.sha256("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(ABC_SHA256, Hashes.sha256((CharSequence) "abc"));
+    }
+
+    @Test
+    public void testTextLargerThanTheEncodingBuffer() {
+        String text = "\u00e1\u00e9\u20ac ".repeat(10_000);
+
+        assertEquals(Hashes.sha256(text.getBytes(StandardCharsets.UTF_8)), Hashes.sha256((CharSequence) text));
+    }
+}
@@ -0,0 +1,152 @@
+import com.sun.net.httpserver.HttpServer;
+import edu.uoc.allago.uocsubmissionsystem.HttpClientUploader;
+import edu.uoc.allago.uocsubmissionsystem.ParallelZipWriter;
+import edu.uoc.allago.uocsubmissionsystem.UploadResult;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class HttpClientUploaderTest {
+
+    private HttpServer server;
+    private CloseableHttpClient httpClient;
+    private String transferEncoding;
+    private String contentType;
+    private byte[] receivedBody;
+    private int status = 200;
+    private boolean dropConnection;
+
+    @Before
+    public void setUp() throws IOException {
+        // Stub server that keeps the last request and answers like the submission server
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload/", exchange -> {
+            transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            receivedBody = exchange.getRequestBody().readAllBytes();
+            if (dropConnection) {
+                // Close the connection without answering
+                exchange.close();
+                return;
+            }
+            byte[] response = (status == 200 ? "success" : "conflict").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.start();
+        httpClient = HttpClients.createDefault();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testStreamingUpload() throws IOException {
+        HttpClientUploader.ZipContent content = out -> {
+            try (ParallelZipWriter writer = new ParallelZipWriter(out, 2, Deflater.DEFAULT_COMPRESSION)) {
+                writer.putDirectory("src/");
+                writer.putEntry("src/Main.java",
+                        entry -> entry.write("class Main {}".getBytes(StandardCharsets.UTF_8)));
+            }
+        };
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        content.writeTo(expected);
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload/pool";
+        UploadResult result = HttpClientUploader.uploadZip(httpClient, url, content, "student");
+
+        assertEquals(UploadResult.SUCCESS, result);
+        assertEquals("chunked", transferEncoding);
+
+        // The file part of the multipart body is the zip file
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        byte[] zip = filePart(receivedBody, boundary);
+        // The entry times depend on when each zip was written, only the entries are compared
+        Map<String, String> entries = entries(zip);
+        assertEquals(entries(expected.toByteArray()), entries);
+        assertEquals("class Main {}", entries.get("src/Main.java"));
+    }
+
+    @Test
+    public void testConflictOnlyMeansUnknownBaseForDeltas() {
+        status = 409;
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload/pool";
+
+        assertEquals(UploadResult.BASE_UNKNOWN,
+                HttpClientUploader.uploadZipDelta(httpClient, url, out -> out.write(new byte[10]), "student", "base"));
+        assertEquals(UploadResult.FAILED,
+                HttpClientUploader.uploadZip(httpClient, url, out -> out.write(new byte[10]), "student"));
+    }
+
+    @Test
+    public void testDroppedConnectionIsNotServerOffline() {
+        dropConnection = true;
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/upload/pool";
+
+        UploadResult result = HttpClientUploader.uploadZip(httpClient, url, out -> out.write(new byte[10]), "student");
+
+        assertEquals(UploadResult.FAILED, result);
+    }
+
+    @Test
+    public void testServerNotOnline() throws IOException {
+        int port = server.getAddress().getPort();
+        server.stop(0);
+
+        UploadResult result = HttpClientUploader.uploadZip(httpClient, "http://127.0.0.1:" + port + "/upload/pool",
+                out -> out.write(new byte[10]), "student");
+
+        assertEquals(UploadResult.SERVER_OFFLINE, result);
+    }
+
+    // Content of every entry of a zip file, by name
+    private static Map<String, String> entries(byte[] zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    // Content of the only part of a multipart body
+    private static byte[] filePart(byte[] body, String boundary) {
+        byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] partEnd = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+        int start = indexOf(body, headerEnd, 0) + headerEnd.length;
+        int end = indexOf(body, partEnd, start);
+        assertTrue(start > headerEnd.length && end > start);
+        return Arrays.copyOfRange(body, start, end);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,167 @@
+import edu.uoc.allago.uocsubmissionsystem.ParallelZipWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrittenZipCanBeRead() throws IOException {
+        File zip = tempFolder.newFile("test.zip");
+
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip.toPath()), 4,
+                Deflater.DEFAULT_COMPRESSION)) {
+            writer.putDirectory("dir/");
+            for (int i = 0; i < 100; i++) {
+                String content = "File number " + i;
+                writer.putEntry("dir/file" + i + ".txt", out -> out.write(content.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(101, zipFile.size());
+            assertTrue(zipFile.getEntry("dir/").isDirectory());
+            for (int i = 0; i < 100; i++) {
+                ZipEntry entry = zipFile.getEntry("dir/file" + i + ".txt");
+                String content = new String(zipFile.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8);
+                assertEquals("File number " + i, content);
+            }
+        }
+    }
+
+    @Test
+    public void testIncompressibleEntriesAreStored() throws IOException {
+        File zip = tempFolder.newFile("methods.zip");
+        byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+        byte[] text = "Some repeated text. ".repeat(5000).getBytes(StandardCharsets.UTF_8);
+
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip.toPath()), 2,
+                Deflater.DEFAULT_COMPRESSION)) {
+            writer.putEntry("random.bin", out -> out.write(random));
+            writer.putEntry("image.png", out -> out.write(text));
+            writer.putEntry("text.txt", out -> out.write(text));
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("random.bin").getMethod());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("image.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("text.txt").getMethod());
+            assertArrayEquals(random, zipFile.getInputStream(zipFile.getEntry("random.bin")).readAllBytes());
+            assertArrayEquals(text, zipFile.getInputStream(zipFile.getEntry("text.txt")).readAllBytes());
+        }
+    }
+
+    @Test
+    public void testNothingIsWrittenAfterAFailure() throws IOException {
+        // Size of every write the stream was asked for
+        List<Integer> writes = new ArrayList<>();
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writes.add(len);
+                throw new IOException("No space left on device");
+            }
+        };
+        byte[] random = new byte[64 * 1024];
+        new Random(3).nextBytes(random);
+
+        ParallelZipWriter writer = new ParallelZipWriter(broken, 2, Deflater.DEFAULT_COMPRESSION);
+        int added = 0;
+        try {
+            for (; added < 100; added++) {
+                writer.putEntry("file" + added + ".bin", out -> out.write(random));
+            }
+            fail("The failed write was not reported");
+        } catch (IOException expected) {
+            // The writer stops at the first failed write
+        }
+        int failedWrites = writes.size();
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // What was buffered cannot be flushed
+        }
+
+        // Closing only tries to flush the buffered header, no pending entry nor the central directory
+        assertTrue(added < 100);
+        for (int len : writes.subList(failedWrites, writes.size())) {
+            assertTrue(len < 1024);
+        }
+    }
+
+    @Test
+    public void testCanceledWriterDoesNotFinishTheArchive() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ParallelZipWriter writer = new ParallelZipWriter(out, 2, Deflater.DEFAULT_COMPRESSION);
+        writer.putEntry("a.txt", stream -> stream.write("a".getBytes(StandardCharsets.UTF_8)));
+        writer.cancel();
+        writer.close();
+
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    public void testEntryThatCannotBeReadFailsTheArchive() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ParallelZipWriter writer = new ParallelZipWriter(out, 2, Deflater.DEFAULT_COMPRESSION);
+        writer.putEntry("a.txt", stream -> stream.write("a".getBytes(StandardCharsets.UTF_8)));
+        writer.putEntry("missing.txt", stream -> {
+            throw new IOException("missing.txt (No such file or directory)");
+        });
+        try {
+            writer.close();
+            fail("The missing entry was left out silently");
+        } catch (IOException e) {
+            assertEquals("missing.txt (No such file or directory)", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEntriesLargerThanTheMemoryLimit() throws IOException {
+        File zip = tempFolder.newFile("large.zip");
+        // Together far more than the writer keeps in memory
+        byte[] random = new byte[4 * 1024 * 1024];
+        new Random(11).nextBytes(random);
+
+        try (ParallelZipWriter writer = new ParallelZipWriter(Files.newOutputStream(zip.toPath()), 8,
+                Deflater.BEST_SPEED)) {
+            for (int i = 0; i < 24; i++) {
+                int index = i;
+                writer.putEntry("file" + i + ".bin", out -> out.write(random, index, random.length - index));
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            assertEquals(24, zipFile.size());
+            byte[] content = zipFile.getInputStream(zipFile.getEntry("file23.bin")).readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(random, 23, random.length), content);
+        }
+    }
+}
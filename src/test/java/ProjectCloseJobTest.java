@@ -0,0 +1,92 @@
+import edu.uoc.allago.uocsubmissionsystem.ProjectCloseJob;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProjectCloseJobTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testInterruptedCloseIsRolledBack() throws Exception {
+        File baseDir = tempFolder.newFolder("project");
+        Path src = Files.createDirectories(baseDir.toPath().resolve("src"));
+        // Main.java was being encrypted, Util.java was already encrypted
+        Files.write(src.resolve("Main.java"), "class Main {}".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Main.java.uoc"), new byte[]{1, 2, 3});
+        Files.write(src.resolve("Util.java.uoc"), new byte[]{4, 5, 6});
+        Files.write(baseDir.toPath().resolve(ProjectCloseJob.INTENT_FILE), new byte[0]);
+
+        ProjectCloseJob.recover(baseDir.getPath());
+
+        assertTrue(Files.exists(src.resolve("Main.java")));
+        assertFalse(Files.exists(src.resolve("Main.java.uoc")));
+        assertTrue(Files.exists(src.resolve("Util.java.uoc")));
+        assertFalse(Files.exists(baseDir.toPath().resolve(ProjectCloseJob.INTENT_FILE)));
+    }
+
+    @Test
+    public void testOpeningRunsAfterTheClose() throws Exception {
+        File baseDir = tempFolder.newFolder("project");
+        Path file = baseDir.toPath().resolve("Main.java.uoc");
+        ProjectCloseJob closeJob = new ProjectCloseJob();
+        CountDownLatch opened = new CountDownLatch(1);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            closeJob.submit(baseDir.getPath(), () -> {
+                assertTrue(Files.exists(baseDir.toPath().resolve(ProjectCloseJob.INTENT_FILE)));
+                try {
+                    release.await();
+                    Files.write(file, new byte[]{1, 2, 3});
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertTrue(closeJob.afterPendingClose(baseDir.getPath(), () -> {
+                assertTrue(Files.exists(file));
+                opened.countDown();
+            }));
+            assertEquals(1, opened.getCount());
+            release.countDown();
+
+            assertTrue(opened.await(10, TimeUnit.SECONDS));
+            assertFalse(Files.exists(baseDir.toPath().resolve(ProjectCloseJob.INTENT_FILE)));
+        } finally {
+            closeJob.dispose();
+        }
+        assertFalse(closeJob.afterPendingClose(baseDir.getPath(), () -> fail("The close has finished")));
+    }
+
+    @Test
+    public void testExitDoesNotWaitForAHungClose() throws Exception {
+        File baseDir = tempFolder.newFolder("project");
+        ProjectCloseJob closeJob = new ProjectCloseJob();
+        CountDownLatch started = new CountDownLatch(1);
+        closeJob.submit(baseDir.getPath(), () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        closeJob.dispose();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        // The close was interrupted, the project is recovered when it is opened again
+        assertTrue(Files.exists(baseDir.toPath().resolve(ProjectCloseJob.INTENT_FILE)));
+    }
+}
@@ -0,0 +1,185 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.uoc.allago.uocsubmissionsystem.ResumableUploader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Reference implementation of the server side of the resumable upload protocol of ResumableUploader.
+ * Uploads are kept in memory. It can fail part requests on purpose to test the retries.
+ */
+public class ResumableUploadStubServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+    private final Map<String, ByteArrayOutputStream> uploads = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> completed = new ConcurrentHashMap<>();
+    private final AtomicInteger partRequests = new AtomicInteger();
+    private volatile int failEvery;
+    private volatile int failAfter;
+    private volatile boolean stalled;
+
+    public ResumableUploadStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/upload/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Upload URL of a pool. */
+    public String url(String poolId) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/upload/" + poolId;
+    }
+
+    /** Makes every n-th part request fail with 503 after reading its body, 0 disables it. */
+    public void failEvery(int n) {
+        failEvery = n;
+    }
+
+    /** Makes every part request after the n-th fail with 503, as if the server went down, 0 disables it. */
+    public void failAfter(int n) {
+        failAfter = n;
+    }
+
+    /** Makes every part request answer 409 with the offset the server holds, without taking the part. */
+    public void stall(boolean stall) {
+        stalled = stall;
+    }
+
+    /** Number of part requests received, including the failed ones. */
+    public int partRequests() {
+        return partRequests.get();
+    }
+
+    /** Content of a completed upload, by the file name it was submitted with. */
+    public byte[] completed(String fileName) {
+        return completed.get(fileName);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            URI uri = exchange.getRequestURI();
+            String[] path = uri.getPath().split("/");
+            // "", "upload", poolId, uploadId[, "complete"]
+            if (path.length < 4) {
+                respond(exchange, 404, "");
+                return;
+            }
+            String uploadId = path[3];
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String method = exchange.getRequestMethod();
+
+            if (method.equals("GET") && path.length == 4) {
+                respond(exchange, 200, Long.toString(size(uploadId)));
+            } else if (method.equals("PUT") && path.length == 4) {
+                handlePart(exchange, uploadId, query(uri, "offset"), body);
+            } else if (method.equals("POST") && path.length == 5 && path[4].equals("complete")) {
+                handleComplete(exchange, uploadId, query(uri, "fileName"));
+            } else {
+                respond(exchange, 404, "");
+            }
+        }
+    }
+
+    private void handlePart(HttpExchange exchange, String uploadId, String offset, byte[] body) throws IOException {
+        int request = partRequests.incrementAndGet();
+        int every = failEvery;
+        int after = failAfter;
+        if ((every > 0 && request % every == 0) || (after > 0 && request > after)) {
+            respond(exchange, 503, "overloaded");
+            return;
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        String checksum = exchange.getRequestHeaders().getFirst(ResumableUploader.PART_CHECKSUM_HEADER);
+        if (!Long.toHexString(crc.getValue()).equals(checksum)) {
+            respond(exchange, 422, "checksum mismatch");
+            return;
+        }
+
+        ByteArrayOutputStream upload = uploads.computeIfAbsent(uploadId, id -> new ByteArrayOutputStream());
+        synchronized (upload) {
+            if (stalled || Long.parseLong(offset) != upload.size()) {
+                respond(exchange, 409, Integer.toString(upload.size()));
+                return;
+            }
+            upload.write(body);
+            respond(exchange, 200, Integer.toString(upload.size()));
+        }
+    }
+
+    private void handleComplete(HttpExchange exchange, String uploadId, String fileName) throws IOException {
+        ByteArrayOutputStream upload = uploads.get(uploadId);
+        if (upload == null) {
+            respond(exchange, 409, "0");
+            return;
+        }
+        byte[] data;
+        synchronized (upload) {
+            data = upload.toByteArray();
+        }
+        String checksum = exchange.getRequestHeaders().getFirst(ResumableUploader.FILE_CHECKSUM_HEADER);
+        if (!sha256(data).equals(checksum)) {
+            respond(exchange, 200, "checksum mismatch");
+            return;
+        }
+        uploads.remove(uploadId);
+        completed.put(fileName, data);
+        respond(exchange, 200, "success");
+    }
+
+    private long size(String uploadId) {
+        ByteArrayOutputStream upload = uploads.get(uploadId);
+        if (upload == null) return 0;
+        synchronized (upload) {
+            return upload.size();
+        }
+    }
+
+    private static String query(URI uri, String name) {
+        for (String parameter : uri.getQuery().split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) exchange.getResponseBody().write(bytes);
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import edu.uoc.allago.uocsubmissionsystem.ResumableUploader;
+import edu.uoc.allago.uocsubmissionsystem.UploadResult;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ResumableUploaderTest {
+
+    private static final int PART_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ResumableUploadStubServer server;
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ResumableUploadStubServer();
+        httpClient = HttpClients.custom().setMaxConnTotal(32).setMaxConnPerRoute(32).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testUploadInParts() throws Exception {
+        byte[] data = randomBytes(PART_SIZE * 3 + 100, 1);
+        Path zipFile = write("student.zip", data);
+
+        UploadResult result = uploader(3).upload(zipFile, "student");
+
+        assertEquals(UploadResult.SUCCESS, result);
+        assertEquals(4, server.partRequests());
+        assertArrayEquals(data, server.completed("student.zip"));
+    }
+
+    @Test
+    public void testFailedPartsAreRetried() throws Exception {
+        byte[] data = randomBytes(PART_SIZE * 5, 2);
+        Path zipFile = write("student.zip", data);
+        server.failEvery(2);
+
+        UploadResult result = uploader(3).upload(zipFile, "student");
+
+        assertEquals(UploadResult.SUCCESS, result);
+        assertArrayEquals(data, server.completed("student.zip"));
+    }
+
+    @Test
+    public void testInterruptedUploadIsResumed() throws Exception {
+        byte[] data = randomBytes(PART_SIZE * 6, 3);
+        Path zipFile = write("student.zip", data);
+
+        // The server goes down after receiving four parts
+        server.failAfter(4);
+        assertEquals(UploadResult.FAILED, uploader(2).upload(zipFile, "student"));
+        assertNull(server.completed("student.zip"));
+
+        // Only the last two parts are sent again
+        int requests = server.partRequests();
+        server.failAfter(0);
+        assertEquals(UploadResult.SUCCESS, uploader(2).upload(zipFile, "student"));
+        assertEquals(2, server.partRequests() - requests);
+        assertArrayEquals(data, server.completed("student.zip"));
+    }
+
+    @Test
+    public void testServerNotAdvancingGivesUp() throws Exception {
+        Path zipFile = write("student.zip", randomBytes(PART_SIZE * 2, 5));
+        server.stall(true);
+
+        UploadResult result = uploader(3).upload(zipFile, "student");
+
+        // The first attempt and the three retries
+        assertEquals(UploadResult.FAILED, result);
+        assertEquals(4, server.partRequests());
+        assertNull(server.completed("student.zip"));
+    }
+
+    @Test
+    public void testServerNotOnline() throws Exception {
+        Path zipFile = write("student.zip", randomBytes(100, 4));
+        String url = server.url("pool");
+        server.close();
+
+        UploadResult result = new ResumableUploader(httpClient, url, PART_SIZE, 2, 1).upload(zipFile, "student");
+
+        assertEquals(UploadResult.SERVER_OFFLINE, result);
+    }
+
+    @Test
+    public void testConcurrentUploads() throws Exception {
+        int students = 40;
+        server.failEvery(7);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<byte[]> data = new ArrayList<>();
+            List<Future<UploadResult>> results = new ArrayList<>();
+            for (int i = 0; i < students; i++) {
+                byte[] bytes = randomBytes(PART_SIZE * 2 + i, i);
+                Path zipFile = write("student" + i + ".zip", bytes);
+                String fileName = "student" + i;
+                data.add(bytes);
+                results.add(executor.submit(() -> uploader(10).upload(zipFile, fileName)));
+            }
+            for (int i = 0; i < students; i++) {
+                assertEquals(UploadResult.SUCCESS, results.get(i).get());
+                assertArrayEquals(data.get(i), server.completed("student" + i + ".zip"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ResumableUploader uploader(int maxRetries) {
+        return new ResumableUploader(httpClient, server.url("pool"), PART_SIZE, maxRetries, 1);
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        Path file = tempFolder.getRoot().toPath().resolve(name);
+        Files.write(file, data);
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -1,12 +1,28 @@
 import com.intellij.openapi.project.Project;
+import edu.uoc.allago.uocsubmissionsystem.CipherTools;
+import edu.uoc.allago.uocsubmissionsystem.EventBuffer;
+import edu.uoc.allago.uocsubmissionsystem.EventJournal;
+import edu.uoc.allago.uocsubmissionsystem.PropertiesLoader;
 import edu.uoc.allago.uocsubmissionsystem.UserActionLogger;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class UserActionLoggerTest {
 
@@ -15,6 +31,9 @@ public class UserActionLoggerTest {
 
     UserActionLogger userActionLogger;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -49,6 +68,14 @@ public class UserActionLoggerTest {
         assertTrue(result);
     }
 
+    @Test
+    public void shouldSkip_ExcludedDirectory_MatchedPerSegment() {
+        assertTrue(userActionLogger.shouldSkip("/home/student/project/.idea/Main.java"));
+        assertTrue(userActionLogger.shouldSkip("C:\\Users\\student\\project\\cmake-build-debug\\main.cpp"));
+        assertFalse(userActionLogger.shouldSkip("/home/student/project/src/Testing.java"));
+        assertFalse(userActionLogger.shouldSkip("/home/student/project/src/test/Main.java"));
+    }
+
     @Test
     public void shouldSkipCode_WithRelevantSequence_ReturnsTrue() {
         String code = "package MyPackage;";
@@ -62,4 +89,78 @@ public class UserActionLoggerTest {
         boolean result = userActionLogger.shouldSkipCode(code);
         assertFalse(result);
     }
+
+    @Test
+    public void writeMD_ManyEdits_ThreadCountStaysConstant() throws IOException {
+        File projectDir = tempFolder.newFolder("project");
+        Files.createFile(projectDir.toPath().resolve(PropertiesLoader.getProperty("dataFile") + ".uoc"));
+        Project project = mock(Project.class);
+        when(project.getBasePath()).thenReturn(projectDir.getPath());
+
+        UserActionLogger logger = new UserActionLogger(project);
+        try {
+            logger.write(true);
+            int threads = Thread.activeCount();
+
+            // Alternate between two files, which used to log every edit
+            for (int i = 0; i < 100_000; i++) {
+                String fileName = "File" + (i % 2) + ".java";
+                logger.writeMD(fileName, projectDir.getPath() + File.separator + fileName, i + 2);
+            }
+
+            assertEquals(threads, Thread.activeCount());
+        } finally {
+            logger.stop();
+            EventBuffer.release(projectDir.getPath());
+        }
+    }
+
+    @Test
+    public void writeLargeMD_OversizedPastes_AreWrittenToDisk() throws Exception {
+        File projectDir = tempFolder.newFolder("project");
+        String dataFile = PropertiesLoader.getProperty("dataFile");
+        Files.createFile(projectDir.toPath().resolve(dataFile + ".uoc"));
+        Project project = mock(Project.class);
+        when(project.getBasePath()).thenReturn(projectDir.getPath());
+
+        int maxPastedCode = PropertiesLoader.getIntProperty("maxPastedCode");
+        String generated = "int x;\n".repeat(maxPastedCode);
+        UserActionLogger logger = new UserActionLogger(project);
+        try {
+            for (int i = 0; i < 3; i++) {
+                logger.writeLargeMD("Main.java", projectDir.getPath() + File.separator + "Main.java", 10, generated);
+            }
+
+            // The pastes are processed in the background and written as soon as they exceed the memory cap
+            EventJournal journal = new EventJournal(projectDir.getPath(), dataFile, new CipherTools());
+            String content = "";
+            for (int wait = 0; wait < 200 && count(content, "[TRUNCATED: ") < 3; wait++) {
+                Thread.sleep(50);
+                content = new String(journal.readAll(), StandardCharsets.UTF_8);
+            }
+            assertEquals(3, count(content, "[TRUNCATED: " + generated.length() + " characters, SHA-256 " +
+                    sha256(generated) + "]"));
+            assertTrue(EventBuffer.forProject(projectDir.getPath()).getPastedCodeSize() <=
+                    PropertiesLoader.getIntProperty("maxBufferedPastedCode"));
+        } finally {
+            logger.stop();
+            EventBuffer.release(projectDir.getPath());
+        }
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String sha256(String text) throws NoSuchAlgorithmException {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
 }